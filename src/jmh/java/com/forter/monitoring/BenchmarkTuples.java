@@ -0,0 +1,35 @@
+package com.forter.monitoring;
+
+import org.apache.storm.task.GeneralTopologyContext;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.TupleImpl;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+ * Real storm tuples and contexts for the benchmarks, backed by mocked topology contexts.
+ */
+class BenchmarkTuples {
+    static final String SOURCE_COMPONENT = "benchmarkSpout";
+    static final String COMPONENT = "benchmarkBolt";
+
+    static Tuple tuple(Fields fields, List<Object> values) {
+        GeneralTopologyContext context = mock(GeneralTopologyContext.class);
+        when(context.getComponentId(anyInt())).thenReturn(SOURCE_COMPONENT);
+        when(context.getComponentOutputFields(anyString(), anyString())).thenReturn(fields);
+        return new TupleImpl(context, values, 1, "default");
+    }
+
+    static TopologyContext topologyContext() {
+        TopologyContext context = mock(TopologyContext.class);
+        when(context.getThisComponentId()).thenReturn(COMPONENT);
+        return context;
+    }
+}
@@ -0,0 +1,95 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.EventRing;
+import com.forter.monitoring.eventSender.EventSlot;
+import com.forter.monitoring.events.LatencyEvent;
+import com.forter.monitoring.events.RiemannEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Measures producing an event into the EventRing, against building a RiemannEvent with the same fields.
+ * Run with "-prof gc" - claiming and filling a ring slot should report ~0 B/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventRingBenchmark {
+    @State(Scope.Benchmark)
+    public static class RingState {
+        EventRing ring;
+        Thread consumer;
+        volatile boolean running;
+
+        @Setup
+        public void setup() {
+            ring = new EventRing(16384);
+            running = true;
+
+            // Recycles the slots without encoding them, so only the producer side is measured
+            final EventRing.SlotHandler recycler = new EventRing.SlotHandler() {
+                @Override
+                public void onSlot(EventSlot slot, boolean endOfBatch) {
+                }
+            };
+            consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running) {
+                        if (ring.consume(recycler, 1024) == 0) {
+                            LockSupport.parkNanos(1000);
+                        }
+                    }
+                }
+            }, "benchmark-ring-consumer");
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            running = false;
+            consumer.join();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean produce(RingState state) {
+        return produceSlot(state.ring);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean produceContended(RingState state) {
+        return produceSlot(state.ring);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public RiemannEvent allocateRiemannEvent() {
+        return new LatencyEvent(3)
+                .service(BenchmarkTuples.COMPONENT)
+                .tags("latency")
+                .attribute("tupleReceivedComponent", BenchmarkTuples.SOURCE_COMPONENT)
+                .attribute("tupleReceivedStream", "default");
+    }
+
+    private static boolean produceSlot(EventRing ring) {
+        EventSlot slot = ring.claim();
+        if (slot == null) {
+            return false;
+        }
+        slot.service(BenchmarkTuples.COMPONENT)
+                .metric(3)
+                .tag("latency")
+                .attribute("tupleReceivedComponent", BenchmarkTuples.SOURCE_COMPONENT)
+                .attribute("tupleReceivedStream", "default");
+        ring.publish(slot);
+        return true;
+    }
+}
@@ -0,0 +1,226 @@
+package com.forter.monitoring;
+
+import com.aphyr.riemann.Proto;
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.google.common.primitives.Longs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * An in-process stand-in for a riemann server, speaking riemann's protocol over TCP (length prefixed messages, each
+ * acked) and UDP (a message per datagram, never acked) on the loopback address.
+ * It decodes every message and counts messages and events. Events carrying the SENT_NANOS_ATTR attribute - the
+ * System.nanoTime() they were created at, in the same JVM - have their delivery latency recorded.
+ * Faults can be injected while running: a delay before each ack, a rate of messages answered with an error, and
+ * disconnecting all the connected clients.
+ */
+class FakeRiemannServer implements AutoCloseable {
+    static final String SENT_NANOS_ATTR = "sentNanos";
+
+    private static final int MAX_DATAGRAM_BYTES = 64 * 1024;
+    private static final int MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final ServerSocket serverSocket;
+    private final DatagramSocket datagramSocket;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong datagrams = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final LatencyHistogram deliveryMicros = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+
+    private volatile long ackDelayMillis;
+    private volatile double errorRate;
+
+    FakeRiemannServer(int port) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        serverSocket = new ServerSocket(port, 50, loopback);
+        datagramSocket = new DatagramSocket(new InetSocketAddress(loopback, port));
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        serve(serverSocket.accept());
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        }, "fake-riemann-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DatagramPacket packet = new DatagramPacket(new byte[MAX_DATAGRAM_BYTES], MAX_DATAGRAM_BYTES);
+                while (!datagramSocket.isClosed()) {
+                    try {
+                        datagramSocket.receive(packet);
+                        datagrams.incrementAndGet();
+                        decode(Arrays.copyOf(packet.getData(), packet.getLength()));
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        }, "fake-riemann-udp");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private void serve(final Socket socket) {
+        clients.add(socket);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (DataInputStream in = new DataInputStream(socket.getInputStream());
+                     DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                    while (true) {
+                        int length = in.readInt();
+                        if (length < 0 || length > MAX_MESSAGE_BYTES) {
+                            malformed.incrementAndGet();
+                            break;
+                        }
+                        byte[] message = new byte[length];
+                        in.readFully(message);
+                        boolean decoded = decode(message);
+
+                        long delay = ackDelayMillis;
+                        if (delay > 0) {
+                            Thread.sleep(delay);
+                        }
+
+                        Proto.Msg.Builder ack = Proto.Msg.newBuilder();
+                        if (!decoded) {
+                            ack.setOk(false).setError("malformed message");
+                        } else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                            errors.incrementAndGet();
+                            ack.setOk(false).setError("injected error");
+                        } else {
+                            ack.setOk(true);
+                        }
+                        byte[] reply = ack.build().toByteArray();
+                        out.writeInt(reply.length);
+                        out.write(reply);
+                        out.flush();
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // client disconnected, or disconnected by disconnectClients()
+                } finally {
+                    clients.remove(socket);
+                }
+            }
+        }, "fake-riemann-connection");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private boolean decode(byte[] bytes) {
+        final Proto.Msg message;
+        try {
+            message = Proto.Msg.parseFrom(bytes);
+        } catch (IOException e) {
+            malformed.incrementAndGet();
+            return false;
+        }
+        final long now = System.nanoTime();
+        messages.incrementAndGet();
+        events.addAndGet(message.getEventsCount());
+        for (Proto.Event event : message.getEventsList()) {
+            for (Proto.Attribute attribute : event.getAttributesList()) {
+                if (SENT_NANOS_ATTR.equals(attribute.getKey())) {
+                    Long sentNanos = Longs.tryParse(attribute.getValue());
+                    if (sentNanos != null) {
+                        deliveryMicros.record(TimeUnit.NANOSECONDS.toMicros(now - sentNanos));
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delays every TCP ack, as a slow riemann would.
+     */
+    void setAckDelayMillis(long ackDelayMillis) {
+        this.ackDelayMillis = ackDelayMillis;
+    }
+
+    /**
+     * Answers this fraction of the TCP messages with an error instead of an ok.
+     */
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Closes the connections of all the connected clients, as a restarting riemann would.
+     */
+    void disconnectClients() {
+        for (Socket client : clients) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    long getMessages() {
+        return messages.get();
+    }
+
+    long getEvents() {
+        return events.get();
+    }
+
+    long getDatagrams() {
+        return datagrams.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    long getMalformed() {
+        return malformed.get();
+    }
+
+    int getClients() {
+        return clients.size();
+    }
+
+    /**
+     * @return the delivery latencies (micros) of the events carrying SENT_NANOS_ATTR since the previous call.
+     */
+    LatencyHistogram.Snapshot snapshotDeliveryMicros() {
+        return deliveryMicros.snapshotAndReset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        datagramSocket.close();
+        disconnectClients();
+    }
+}
@@ -0,0 +1,72 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.EventSender;
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Compares a spout's emit/ack cycle through the InFlightTracker, which tracks every tuple, with the same cycle through
+ * the monitor's latency store, which spouts sample. pending is the number of tuples kept in flight, as
+ * topology.max.spout.pending would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InFlightTrackerBenchmark {
+    @Param({"1000", "100000"})
+    int pending;
+
+    InFlightTracker tracker;
+    Monitor monitor;
+    Long[] ids;
+    int next;
+
+    @Setup
+    public void setup() {
+        Map<String, Object> conf = Maps.newHashMap();
+        conf.put("topology.monitoring.latencies.map.maxSize", (long) pending * 2);
+        conf.put("topology.monitoring.latencies.map.workerMaxSize", (long) pending * 2);
+        conf.put("topology.monitoring.latencies.map.maxTimeSeconds", 60L);
+
+        tracker = new InFlightTracker("benchmarkSpout", pending);
+        monitor = new Monitor(conf, "benchmarkSpout", new EventSender() {
+            @Override
+            public void send(RiemannEvent event) {
+            }
+        }, null);
+
+        ids = new Long[pending * 2];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (long) i;
+        }
+        for (int i = 0; i < pending; i++) {
+            tracker.emitted(ids[i], System.nanoTime());
+            monitor.startExecute(ids[i], null, "benchmarkSpout");
+        }
+        next = pending;
+    }
+
+    @Benchmark
+    public boolean tracker() {
+        // Acking the tuple emitted pending emits ago keeps pending tuples in flight
+        final long now = System.nanoTime();
+        tracker.emitted(ids[next], now);
+        final boolean acked = tracker.completed(ids[(next + pending) % ids.length], true, now);
+        next = (next + 1) % ids.length;
+        return acked;
+    }
+
+    @Benchmark
+    public void latencyStore() {
+        monitor.startExecute(ids[next], null, "benchmarkSpout");
+        monitor.endExecute(ids[(next + pending) % ids.length], null, true);
+        next = (next + 1) % ids.length;
+    }
+}
@@ -0,0 +1,102 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.EventSender;
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Registers execute start/emit/end cycles on a single Monitor from a growing number of threads (as acks arriving from
+ * several threads would), reporting the cycles per second of each thread count. Each thread keeps IN_FLIGHT_PER_THREAD
+ * latencies in flight: it starts all of them, then ends all of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LatencyRegistryContentionBenchmark {
+    private static final int IN_FLIGHT_PER_THREAD = 64;
+    private static final int MAX_THREADS = 8;
+
+    @State(Scope.Benchmark)
+    public static class MonitorState {
+        Monitor monitor;
+        final LongAdder sentEvents = new LongAdder();
+
+        @Setup
+        public void setup() {
+            Map<String, Object> conf = Maps.newHashMap();
+            conf.put("topology.monitoring.latencies.map.maxSize", (long) MAX_THREADS * IN_FLIGHT_PER_THREAD * 2);
+            conf.put("topology.monitoring.latencies.map.maxTimeSeconds", 60L);
+            conf.put("topology.monitoring.latencies.map.maxConcurrency", (long) MAX_THREADS);
+
+            monitor = new Monitor(conf, "benchmarkBolt", new EventSender() {
+                @Override
+                public void send(RiemannEvent event) {
+                    sentEvents.increment();
+                }
+            }, null);
+        }
+
+        @TearDown
+        public void tearDown() {
+            monitor.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        final Object[] keys = new Object[IN_FLIGHT_PER_THREAD];
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = new Object();
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(IN_FLIGHT_PER_THREAD)
+    public void threads1(MonitorState state, Keys keys) {
+        cycles(state.monitor, keys.keys);
+    }
+
+    @Benchmark
+    @Threads(2)
+    @OperationsPerInvocation(IN_FLIGHT_PER_THREAD)
+    public void threads2(MonitorState state, Keys keys) {
+        cycles(state.monitor, keys.keys);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(IN_FLIGHT_PER_THREAD)
+    public void threads4(MonitorState state, Keys keys) {
+        cycles(state.monitor, keys.keys);
+    }
+
+    @Benchmark
+    @Threads(MAX_THREADS)
+    @OperationsPerInvocation(IN_FLIGHT_PER_THREAD)
+    public void threads8(MonitorState state, Keys keys) {
+        cycles(state.monitor, keys.keys);
+    }
+
+    private static void cycles(Monitor monitor, Object[] keys) {
+        for (Object key : keys) {
+            monitor.startExecute(key, null, "benchmarkBolt");
+        }
+        for (Object key : keys) {
+            monitor.startLatency(key, LatencyType.EMIT);
+            monitor.endLatency(key, LatencyType.EMIT);
+            monitor.endExecute(key, null, true);
+        }
+    }
+}
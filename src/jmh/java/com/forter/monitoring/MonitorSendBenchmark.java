@@ -0,0 +1,73 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.EventSender;
+import com.forter.monitoring.eventSender.TupleAwareEventSender;
+import com.forter.monitoring.events.LatencyEvent;
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.collect.Maps;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Measures Monitor.send of a latency event carrying a tuple, including the queue time and "_" prefixed tuple
+ * attribute extraction done by Monitor and TupleAwareEventSender.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MonitorSendBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SendState {
+        final LongAdder sentEvents = new LongAdder();
+        Monitor monitor;
+        Tuple tuple;
+
+        @Setup
+        public void setup() {
+            Map<String, Object> conf = Maps.newHashMap();
+            conf.put("topology.riemann.attributes", "env=benchmark,dc=local");
+
+            TupleAwareEventSender tupleAwareEventSender = new TupleAwareEventSender(new EventSender() {
+                @Override
+                public void send(RiemannEvent event) {
+                    sentEvents.increment();
+                }
+            }, conf);
+
+            tuple = BenchmarkTuples.tuple(new Fields("word", "_requestId", "_queueTime"),
+                    new Values("word", "request-1", Long.toString(System.currentTimeMillis())));
+            tupleAwareEventSender.setCurrentTuple(tuple);
+
+            monitor = new Monitor(conf, BenchmarkTuples.COMPONENT, tupleAwareEventSender, null);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void send(SendState state) {
+        doSend(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void sendContended(SendState state) {
+        doSend(state);
+    }
+
+    private static void doSend(SendState state) {
+        RiemannEvent event = new LatencyEvent(3)
+                .service(BenchmarkTuples.COMPONENT)
+                .tuple(state.tuple)
+                .attribute("startTimeMillis", "1600000000000");
+        state.monitor.send(event);
+    }
+}
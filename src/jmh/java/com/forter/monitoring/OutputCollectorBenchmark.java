@@ -0,0 +1,158 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.EventSender;
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.collect.Maps;
+import org.apache.storm.task.IOutputCollector;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.IRichBolt;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Measures the monitored bolt path - MonitoredBolt.execute followed by MonitoredOutputCollector emit and ack - against
+ * a no-op storm collector. The contended variant acks on one bolt from four threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputCollectorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class BoltState {
+        final LongAdder sentEvents = new LongAdder();
+        MonitoredBolt bolt;
+        OutputCollector collector;
+
+        @Setup
+        public void setup() {
+            final CapturingBolt delegate = new CapturingBolt();
+            bolt = new MonitoredBolt(delegate) {
+                @Override
+                protected EventSender getEventSender() {
+                    return new EventSender() {
+                        @Override
+                        public void send(RiemannEvent event) {
+                            sentEvents.increment();
+                        }
+                    };
+                }
+            };
+            Map<String, Object> conf = Maps.newHashMap();
+            conf.put("topology.monitoring.latencies.map.maxSize", 100000L);
+            bolt.prepare(conf, BenchmarkTuples.topologyContext(), new OutputCollector(new NoopOutputCollector()));
+            collector = delegate.collector;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Tuples {
+        final List<Object> output = new Values("word");
+        Tuple[] tuples;
+        int next;
+
+        @Setup
+        public void setup() {
+            tuples = new Tuple[1024];
+            for (int i = 0; i < tuples.length; i++) {
+                tuples[i] = BenchmarkTuples.tuple(new Fields("word"), new Values("word" + i));
+            }
+        }
+
+        Tuple nextTuple() {
+            next = (next + 1) % tuples.length;
+            return tuples[next];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void emit(BoltState state, Tuples tuples) {
+        state.collector.emit("default", Collections.singletonList(tuples.nextTuple()), tuples.output);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void executeEmitAck(BoltState state, Tuples tuples) {
+        cycle(state, tuples);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void executeEmitAckContended(BoltState state, Tuples tuples) {
+        cycle(state, tuples);
+    }
+
+    private static void cycle(BoltState state, Tuples tuples) {
+        Tuple tuple = tuples.nextTuple();
+        state.bolt.execute(tuple);
+        state.collector.emit("default", Collections.singletonList(tuple), tuples.output);
+        state.collector.ack(tuple);
+    }
+
+    private static class CapturingBolt implements IRichBolt {
+        private transient OutputCollector collector;
+
+        @Override
+        public void prepare(Map conf, TopologyContext context, OutputCollector collector) {
+            this.collector = collector;
+        }
+
+        @Override
+        public void execute(Tuple input) {
+        }
+
+        @Override
+        public void cleanup() {
+        }
+
+        @Override
+        public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        }
+
+        @Override
+        public Map<String, Object> getComponentConfiguration() {
+            return null;
+        }
+    }
+
+    private static class NoopOutputCollector implements IOutputCollector {
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+        }
+
+        @Override
+        public void ack(Tuple input) {
+        }
+
+        @Override
+        public void fail(Tuple input) {
+        }
+
+        @Override
+        public void resetTimeout(Tuple input) {
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+        }
+    }
+}
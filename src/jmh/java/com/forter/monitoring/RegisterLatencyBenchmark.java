@@ -0,0 +1,87 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.EventSender;
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Measures a full execute start/emit/end cycle through Monitor.registerLatency, per call.
+ * keyCount is the number of latencies each thread keeps in flight, the contended variant shares one Monitor between
+ * four threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegisterLatencyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MonitorState {
+        @Param({"16", "1024"})
+        int keyCount;
+
+        Monitor monitor;
+        final LongAdder sentEvents = new LongAdder();
+
+        @Setup
+        public void setup() {
+            Map<String, Object> conf = Maps.newHashMap();
+            conf.put("topology.monitoring.latencies.map.maxSize", (long) keyCount * 16);
+            conf.put("topology.monitoring.latencies.map.maxTimeSeconds", 60L);
+            conf.put("topology.monitoring.latencies.map.maxConcurrency", 4L);
+
+            monitor = new Monitor(conf, "benchmarkBolt", new EventSender() {
+                @Override
+                public void send(RiemannEvent event) {
+                    sentEvents.increment();
+                }
+            }, null);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        Object[] keys;
+        int next;
+
+        @Setup
+        public void setup(MonitorState state) {
+            keys = new Object[state.keyCount];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = new Object();
+            }
+        }
+
+        Object nextKey() {
+            next = (next + 1) % keys.length;
+            return keys[next];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void uncontended(MonitorState state, Keys keys) {
+        cycle(state.monitor, keys);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contended(MonitorState state, Keys keys) {
+        cycle(state.monitor, keys);
+    }
+
+    private static void cycle(Monitor monitor, Keys keys) {
+        // Starting a key further ahead keeps keyCount latencies in flight
+        Object key = keys.nextKey();
+        monitor.startExecute(key, null, "benchmarkBolt");
+        monitor.startLatency(key, LatencyType.EMIT);
+        monitor.endLatency(key, LatencyType.EMIT);
+        monitor.endExecute(keys.keys[(keys.next + 1) % keys.keys.length], null, true);
+    }
+}
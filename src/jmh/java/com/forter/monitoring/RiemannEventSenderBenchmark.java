@@ -0,0 +1,85 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.AsyncRiemannEventSender;
+import com.forter.monitoring.eventSender.RiemannEventSender;
+import com.forter.monitoring.events.LatencyEvent;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.RiemannConnection;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Measures RiemannEventSender.send, synchronous and async batching, against a local riemann stand-in.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RiemannEventSenderBenchmark {
+    private static final int RIEMANN_PORT = 5555;
+
+    @State(Scope.Benchmark)
+    public static class SenderState {
+        @Param({"sync", "async"})
+        String mode;
+
+        FakeRiemannServer standIn;
+        RiemannEventSender sender;
+
+        @Setup
+        public void setup() throws IOException {
+            standIn = new FakeRiemannServer(RIEMANN_PORT);
+
+            RiemannConnection connection = new RiemannConnection();
+            connection.connect("127.0.0.1");
+
+            if (mode.equals("async")) {
+                sender = new AsyncRiemannEventSender(connection, 100000, 100, 5,
+                        AsyncRiemannEventSender.OverflowPolicy.DROP_NEWEST, 0) {
+                    @Override
+                    protected String retrieveMachineName() {
+                        return "benchmark-host";
+                    }
+                };
+            } else {
+                sender = new RiemannEventSender(connection) {
+                    @Override
+                    protected String retrieveMachineName() {
+                        return "benchmark-host";
+                    }
+                };
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            if (sender instanceof AsyncRiemannEventSender) {
+                ((AsyncRiemannEventSender) sender).close();
+            }
+            sender.getRiemannClient().disconnect();
+            standIn.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void send(SenderState state) {
+        state.sender.send(event());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void sendContended(SenderState state) {
+        state.sender.send(event());
+    }
+
+    private static RiemannEvent event() {
+        return new LatencyEvent(3)
+                .service(BenchmarkTuples.COMPONENT)
+                .attribute("tupleReceivedComponent", BenchmarkTuples.SOURCE_COMPONENT)
+                .attribute("tupleReceivedStream", "default");
+    }
+}
@@ -0,0 +1,234 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.AsyncRiemannEventSender;
+import com.forter.monitoring.eventSender.CircuitBreakerTransport;
+import com.forter.monitoring.eventSender.RiemannEventSender;
+import com.forter.monitoring.eventSender.RingRiemannEventSender;
+import com.forter.monitoring.eventSender.TcpRiemannTransport;
+import com.forter.monitoring.eventSender.UdpRiemannTransport;
+import com.forter.monitoring.events.LatencyEvent;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.forter.monitoring.utils.RiemannConnection;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Drives a RiemannEventSender at a fixed rate against a FakeRiemannServer, and reports the achieved throughput, the
+ * latency of the send calls, the delivery latency to the server and the events dropped or lost on the way.
+ * Latencies are measured from each event's scheduled send time rather than its actual one, so a sender that blocks
+ * its callers shows up in the tail instead of silently lowering the offered rate.
+ * Run with the jmh profile, e.g.:
+ *  mvn -Pjmh test-compile exec:exec@load-test -Dloadtest.args="mode=async rate=20000 seconds=30 ackDelayMillis=5"
+ * Arguments (defaults): mode (sync, async or ring), transport (tcp or udp), rate (10000 events per second), seconds (30),
+ * producers (4), breaker (false), ackDelayMillis (0), errorRate (0), disconnectEverySeconds (0 - never).
+ */
+public class SenderLoadTest {
+    private static final int RIEMANN_PORT = 5555;
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Maps.newHashMap();
+        for (String arg : args) {
+            List<String> option = Splitter.on('=').limit(2).splitToList(arg);
+            options.put(option.get(0), option.size() > 1 ? option.get(1) : "");
+        }
+        final String mode = option(options, "mode", "sync");
+        final String transport = option(options, "transport", "tcp");
+        final int rate = Integer.parseInt(option(options, "rate", "10000"));
+        final int seconds = Integer.parseInt(option(options, "seconds", "30"));
+        final int producers = Integer.parseInt(option(options, "producers", "4"));
+        final boolean breaker = Boolean.parseBoolean(option(options, "breaker", "false"));
+        final int disconnectEverySeconds = Integer.parseInt(option(options, "disconnectEverySeconds", "0"));
+
+        try (FakeRiemannServer server = new FakeRiemannServer(RIEMANN_PORT)) {
+            server.setAckDelayMillis(Long.parseLong(option(options, "ackDelayMillis", "0")));
+            server.setErrorRate(Double.parseDouble(option(options, "errorRate", "0")));
+
+            final RiemannEventSender sender = createSender(mode, transport, breaker);
+            final LatencyHistogram callMicros = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+            final AtomicLong offered = new AtomicLong();
+            final long start = System.nanoTime();
+            final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            final long intervalNanos = TimeUnit.SECONDS.toNanos(1) * producers / rate;
+
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++) {
+                final long offset = intervalNanos * p / producers;
+                threads[p] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (long scheduled = start + offset; scheduled < end; scheduled += intervalNanos) {
+                            long wait = scheduled - System.nanoTime();
+                            if (wait > 0) {
+                                LockSupport.parkNanos(wait);
+                            }
+                            sender.send(event(scheduled));
+                            callMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled));
+                            offered.incrementAndGet();
+                        }
+                    }
+                }, "load-test-producer-" + p);
+                threads[p].start();
+            }
+
+            System.out.println("second offered received callP99Ms deliveryP99Ms");
+            LatencyHistogram.Snapshot[] callTotals = new LatencyHistogram.Snapshot[seconds];
+            LatencyHistogram.Snapshot[] deliveryTotals = new LatencyHistogram.Snapshot[seconds];
+            long lastOffered = 0;
+            long lastReceived = 0;
+            for (int second = 0; second < seconds; second++) {
+                LockSupport.parkNanos(start + TimeUnit.SECONDS.toNanos(second + 1) - System.nanoTime());
+                if (disconnectEverySeconds > 0 && (second + 1) % disconnectEverySeconds == 0) {
+                    server.disconnectClients();
+                }
+                callTotals[second] = callMicros.snapshotAndReset();
+                deliveryTotals[second] = server.snapshotDeliveryMicros();
+                long currentOffered = offered.get();
+                long currentReceived = server.getEvents();
+                System.out.println(String.format(Locale.ROOT, "%d %d %d %.3f %.3f", second + 1,
+                        currentOffered - lastOffered, currentReceived - lastReceived,
+                        toMillis(callTotals[second].getValueAtPercentile(99)),
+                        toMillis(deliveryTotals[second].getValueAtPercentile(99))));
+                lastOffered = currentOffered;
+                lastReceived = currentReceived;
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            closeSender(sender);
+            awaitDrain(server);
+
+            long received = server.getEvents();
+            System.out.println();
+            System.out.println(String.format(Locale.ROOT, "mode=%s transport=%s rate=%d producers=%d breaker=%s",
+                    mode, transport, rate, producers, breaker));
+            System.out.println(String.format(Locale.ROOT, "offered %d, received %d (%.0f/s), lost %d",
+                    offered.get(), received, (double) received / seconds, offered.get() - received));
+            printSenderCounters(sender);
+            System.out.println(String.format(Locale.ROOT, "server messages %d, datagrams %d, injected errors %d, malformed %d",
+                    server.getMessages(), server.getDatagrams(), server.getErrors(), server.getMalformed()));
+            printPercentiles("send call", callTotals);
+            printPercentiles("delivery", deliveryTotals);
+        }
+    }
+
+    private static RiemannEventSender createSender(String mode, String transport, boolean breaker) throws Exception {
+        RiemannConnection connection = new RiemannConnection();
+        connection.connect("127.0.0.1");
+
+        RiemannEventSender sender;
+        switch (mode) {
+            case "async":
+                sender = new AsyncRiemannEventSender(connection, 100000, 100, 5,
+                        AsyncRiemannEventSender.OverflowPolicy.DROP_NEWEST, 0) {
+                    @Override
+                    protected String retrieveMachineName() {
+                        return "load-test-host";
+                    }
+                };
+                break;
+            case "ring":
+                sender = new RingRiemannEventSender(connection, 65536, 100) {
+                    @Override
+                    protected String retrieveMachineName() {
+                        return "load-test-host";
+                    }
+                };
+                break;
+            default:
+                sender = new RiemannEventSender(connection) {
+                    @Override
+                    protected String retrieveMachineName() {
+                        return "load-test-host";
+                    }
+                };
+                break;
+        }
+
+        if (transport.equals("udp")) {
+            sender.setTransport(RiemannEvent.class,
+                    new UdpRiemannTransport("127.0.0.1", RIEMANN_PORT, UdpRiemannTransport.MAX_DATAGRAM_BYTES_DEFAULT));
+        } else if (breaker) {
+            sender.setTransport(RiemannEvent.class,
+                    new CircuitBreakerTransport(new TcpRiemannTransport(connection), "127.0.0.1", 5, 1000, 5000));
+        }
+        return sender;
+    }
+
+    private static RiemannEvent event(long scheduledNanos) {
+        return new LatencyEvent(3)
+                .service(BenchmarkTuples.COMPONENT)
+                .attribute("tupleReceivedComponent", BenchmarkTuples.SOURCE_COMPONENT)
+                .attribute(FakeRiemannServer.SENT_NANOS_ATTR, scheduledNanos);
+    }
+
+    private static void closeSender(RiemannEventSender sender) throws Exception {
+        if (sender instanceof AsyncRiemannEventSender) {
+            ((AsyncRiemannEventSender) sender).close();
+        } else if (sender instanceof RingRiemannEventSender) {
+            ((RingRiemannEventSender) sender).close();
+        }
+    }
+
+    /**
+     * Waits until the server stops receiving events - the sent events may still be in flight.
+     */
+    private static void awaitDrain(FakeRiemannServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        long received = -1;
+        while (received != server.getEvents() && System.currentTimeMillis() < deadline) {
+            received = server.getEvents();
+            Thread.sleep(200);
+        }
+    }
+
+    private static void printSenderCounters(RiemannEventSender sender) {
+        if (sender instanceof AsyncRiemannEventSender) {
+            AsyncRiemannEventSender async = (AsyncRiemannEventSender) sender;
+            System.out.println(String.format(Locale.ROOT, "sender sent %d, dropped %d, failed %d, batches %d",
+                    async.getSent(), async.getDropped(), async.getFailed(), async.getBatches()));
+        } else if (sender instanceof RingRiemannEventSender) {
+            RingRiemannEventSender ring = (RingRiemannEventSender) sender;
+            System.out.println(String.format(Locale.ROOT, "sender sent %d, dropped %d, failed %d",
+                    ring.getSent(), ring.getDropped(), ring.getFailed()));
+        }
+    }
+
+    private static void printPercentiles(String name, LatencyHistogram.Snapshot[] perSecond) {
+        // Per second snapshots can't be merged, so report the worst second of each percentile
+        double p50 = 0;
+        double p99 = 0;
+        double p999 = 0;
+        double max = 0;
+        for (LatencyHistogram.Snapshot snapshot : perSecond) {
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            p50 = Math.max(p50, toMillis(snapshot.getValueAtPercentile(50)));
+            p99 = Math.max(p99, toMillis(snapshot.getValueAtPercentile(99)));
+            p999 = Math.max(p999, toMillis(snapshot.getValueAtPercentile(99.9)));
+            max = Math.max(max, toMillis(snapshot.getMax()));
+        }
+        System.out.println(String.format(Locale.ROOT, "%s latency (worst second) p50 %.3fms p99 %.3fms p99.9 %.3fms max %.3fms",
+                name, p50, p99, p999, max));
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,138 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.events.ExceptionEvent;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.events.ServiceNames;
+import com.forter.monitoring.utils.MonitoringConstants;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Aggregates the errors reported by a single component, fingerprinted by exception type and top stack frames.
+ * Only the first error of each fingerprint in a window is sent with its stack trace, so at most one trace per
+ * fingerprint is rendered per window. flush() ends the window and creates a count event per fingerprint that occurred
+ * during it. A fingerprint's state is counted and forgotten under the map's lock of its key, so an error recorded while
+ * its idle fingerprint is being forgotten is never lost.
+ */
+public class AggregatedErrors {
+    public static final String ERROR_COUNT_TAG = "exception-count";
+    public static final String FINGERPRINT_ATTR_ID = "exceptionFingerprint";
+
+    private static final int FINGERPRINT_FRAMES = 3;
+    // Past this many fingerprints, errors are fingerprinted by their type only
+    private static final int MAX_FINGERPRINTS = 1000;
+    private static final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+
+    private final String boltService;
+    private final Map<Fingerprint, ErrorState> errorsPerFingerprint = new ConcurrentHashMap<>();
+    private final AtomicLong window = new AtomicLong();
+
+    public AggregatedErrors(String boltService) {
+        this.boltService = boltService;
+    }
+
+    /**
+     * Counts the error.
+     * @return the exception event to send, if this is the first error of its fingerprint in the current window.
+     */
+    public Optional<RiemannEvent> record(Throwable t) {
+        Fingerprint fingerprint = fingerprint(t, errorsPerFingerprint.size() < MAX_FINGERPRINTS);
+        ErrorState state = errorsPerFingerprint.compute(fingerprint, (key, current) -> {
+            ErrorState counted = current == null ? new ErrorState(key) : current;
+            counted.count.increment();
+            return counted;
+        });
+
+        final long currentWindow = window.get();
+        final long tracedWindow = state.tracedWindow.get();
+        if (tracedWindow == currentWindow || !state.tracedWindow.compareAndSet(tracedWindow, currentWindow)) {
+            return Optional.absent();
+        }
+
+        // Errors of a fingerprint share their top frames, so the window's first one represents them all
+        RiemannEvent event = new ExceptionEvent(t, Throwables.getStackTraceAsString(t))
+                .attribute(FINGERPRINT_ATTR_ID, state.id)
+                .service(boltService);
+        return Optional.of(event);
+    }
+
+    public Iterable<RiemannEvent> flush() {
+        window.incrementAndGet();
+
+        List<RiemannEvent> events = Lists.newArrayList();
+        for (Map.Entry<Fingerprint, ErrorState> entry : errorsPerFingerprint.entrySet()) {
+            ErrorState state = entry.getValue();
+            // Subtracted rather than reset, as an error counted between a sum and a reset would be lost
+            long count = state.count.sum();
+            if (count == 0) {
+                // Idle for a whole window - forget it, so the map only holds recent fingerprints. Unless an error was
+                // recorded meanwhile, which is then counted in the next window
+                errorsPerFingerprint.computeIfPresent(entry.getKey(),
+                        (key, current) -> current == state && current.count.sum() == 0 ? null : current);
+                continue;
+            }
+            state.count.add(-count);
+            events.add(new RiemannEvent()
+                    .service(ServiceNames.of(boltService, " exceptions."))
+                    .metric(count)
+                    .tags(ERROR_COUNT_TAG)
+                    .attribute(MonitoringConstants.ERROR_TYPE_ATTR_ID, state.type)
+                    .attribute(FINGERPRINT_ATTR_ID, state.id));
+        }
+        return events;
+    }
+
+    private static Fingerprint fingerprint(Throwable t, boolean withFrames) {
+        StackTraceElement[] frames = NO_FRAMES;
+        if (withFrames) {
+            StackTraceElement[] stackTrace = t.getStackTrace();
+            frames = Arrays.copyOf(stackTrace, Math.min(FINGERPRINT_FRAMES, stackTrace.length));
+        }
+        return new Fingerprint(t.getClass(), frames);
+    }
+
+    private static class Fingerprint {
+        private final Class<?> type;
+        private final StackTraceElement[] frames;
+        private final int hash;
+
+        Fingerprint(Class<?> type, StackTraceElement[] frames) {
+            this.type = type;
+            this.frames = frames;
+            this.hash = 31 * type.hashCode() + Arrays.hashCode(frames);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Fingerprint)) return false;
+            Fingerprint that = (Fingerprint) o;
+            return hash == that.hash && type == that.type && Arrays.equals(frames, that.frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class ErrorState {
+        private final String id;
+        private final String type;
+        private final LongAdder count = new LongAdder();
+        private final AtomicLong tracedWindow = new AtomicLong(-1);
+
+        ErrorState(Fingerprint fingerprint) {
+            this.id = Integer.toHexString(fingerprint.hash);
+            this.type = fingerprint.type.getSimpleName();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Holds in-process latency histograms of a single component, keyed by input stream, latency kind and outcome.
+ * Used by Monitor in aggregation mode - instead of one event per tuple, flush() creates p50/p95/p99/max/count events
+ * per histogram that recorded values since the previous flush.
+ */
+public class AggregatedLatencies {
+    public static final String HISTOGRAM_TAG = "latency-histogram";
+
+    // Latencies are recorded in micros, up to an hour
+
+    public enum Kind {
+        EXECUTE("latency."),
+        EMIT("emit-latency."),
+        QUEUE("queue-latency.");
+
+        private final String serviceSuffix;
+
+        Kind(String serviceSuffix) {
+            this.serviceSuffix = serviceSuffix;
+        }
+    }
+
+    private final String boltService;
+    private final Map<String, StreamHistograms> histogramsPerStream;
+
+    public AggregatedLatencies(String boltService) {
+        this.boltService = boltService;
+        this.histogramsPerStream = new ConcurrentHashMap<>();
+    }
+
+    public void record(String stream, Kind kind, boolean success, long nanos) {
+        StreamHistograms histograms = histogramsPerStream.get(stream);
+        if (histograms == null) {
+            histograms = histogramsPerStream.computeIfAbsent(stream, s -> new StreamHistograms());
+        }
+        histograms.get(kind, success).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public Iterable<RiemannEvent> flush() {
+        List<RiemannEvent> events = Lists.newArrayList();
+        for (Map.Entry<String, StreamHistograms> entry : histogramsPerStream.entrySet()) {
+            for (Kind kind : Kind.values()) {
+                for (boolean success : new boolean[] {true, false}) {
+                    LatencyHistogram.Snapshot snapshot = entry.getValue().get(kind, success).snapshotAndReset();
+                    if (snapshot.getCount() > 0) {
+                        addEvents(events, entry.getKey(), kind, success, snapshot);
+                    }
+                }
+            }
+        }
+        return events;
+    }
+
+    private void addEvents(List<RiemannEvent> events, String stream, Kind kind, boolean success,
+                           LatencyHistogram.Snapshot snapshot) {
+        for (RiemannEvent event : snapshot.toEvents(boltService + " " + kind.serviceSuffix, HISTOGRAM_TAG)) {
+            events.add(event
+                    .state(success ? "success" : "failure")
+                    .attribute("tupleReceivedStream", stream)
+                    .attribute("count", snapshot.getCount()));
+        }
+    }
+
+    private static class StreamHistograms {
+        private final LatencyHistogram[] histograms;
+
+        private StreamHistograms() {
+            histograms = new LatencyHistogram[Kind.values().length * 2];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = LatencyHistogram.ofMicros();
+            }
+        }
+
+        private LatencyHistogram get(Kind kind, boolean success) {
+            return histograms[kind.ordinal() * 2 + (success ? 0 : 1)];
+        }
+    }
+}
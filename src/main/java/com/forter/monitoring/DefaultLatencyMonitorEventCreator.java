@@ -1,23 +1,29 @@
 package com.forter.monitoring;
 
 import org.apache.storm.tuple.Tuple;
+import com.forter.monitoring.eventSender.EventSlot;
 import com.forter.monitoring.events.ExceptionEvent;
 import com.forter.monitoring.events.LatencyEvent;
 import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.events.ServiceNames;
 import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
 
 public class DefaultLatencyMonitorEventCreator implements LatencyMonitorEventCreator {
     public final static String MISSING_KEY_TAG = "latency-missing-key";
     public final static String UNEXPECTED_REMOVE_KEY_TAG = "latency-unexpectedly-removed";
-    private final SimpleDateFormat dateFormat;
+    // Latency events may be created concurrently by several acking threads, so the formatter must be thread safe
+    private final DateTimeFormatter dateFormat;
 
     public DefaultLatencyMonitorEventCreator() {
         super();
-        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        this.dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneId.systemDefault());
     }
 
     @Override
@@ -44,20 +50,6 @@ public class DefaultLatencyMonitorEventCreator implements LatencyMonitorEventCre
                 .service(service));
     }
 
-    @Override
-    public Iterable<RiemannEvent> createEmitLatencyEvents(long emitMillis, String boltService, Tuple tuple) {
-        RiemannEvent event = new RiemannEvent()
-                .metric(emitMillis)
-                .tags("emit-latency")
-                .service(boltService);
-
-        if (tuple != null) {
-            event.tuple(tuple);
-        }
-
-        return Lists.newArrayList(event);
-    }
-
     @Override
     public Iterable<RiemannEvent> createLatencyEvents(Boolean success, Latencies latencies, long endTimeMillis, long elapsedMillis, EventProperties properties) {
         LatencyEvent event = (LatencyEvent) new LatencyEvent(elapsedMillis)
@@ -72,7 +64,7 @@ public class DefaultLatencyMonitorEventCreator implements LatencyMonitorEventCre
 
         final long startTimeMillis = endTimeMillis - elapsedMillis;
 
-        String startTime = this.dateFormat.format(startTimeMillis);
+        String startTime = this.dateFormat.format(Instant.ofEpochMilli(startTimeMillis));
 
         if (latencies.getTuple() != null) {
             event.tuple(latencies.getTuple());
@@ -92,4 +84,33 @@ public class DefaultLatencyMonitorEventCreator implements LatencyMonitorEventCre
 
         return Lists.<RiemannEvent>newArrayList(event);
     }
+
+    /**
+     * Fills a ring slot with the event createLatencyEvents creates for a latency ended once, without creating it.
+     */
+    void fillLatencySlot(EventSlot slot, boolean success, String service, long endTimeMillis, long elapsedMillis,
+                         EventProperties properties) {
+        slot.eventClass(LatencyEvent.class)
+                .service(ServiceNames.of(service, LatencyEvent.SERVICE_SUFFIX))
+                .state(success ? "success" : "failure")
+                .metric(elapsedMillis)
+                .tag("latency");
+
+        if (properties != null) {
+            if (properties.getAttributes() != null) {
+                for (Map.Entry<String, String> attribute : properties.getAttributes().entrySet()) {
+                    slot.attribute(attribute.getKey(), attribute.getValue());
+                }
+            }
+            if (properties.getTags() != null) {
+                for (String tag : properties.getTags()) {
+                    slot.tag(tag);
+                }
+            }
+        }
+
+        final long startTimeMillis = endTimeMillis - elapsedMillis;
+        slot.attribute("startTime", this.dateFormat.format(Instant.ofEpochMilli(startTimeMillis)));
+        slot.attribute("startTimeMillis", Long.toString(startTimeMillis));
+    }
 }
@@ -0,0 +1,57 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Holds in-process histograms of the time this component's emits took - serializing the tuple and handing it to the
+ * transfer queue, or blocking while that queue is full - per output stream. Every emit is recorded, of bolts and
+ * spouts, anchored or not, direct or not.
+ */
+public class EmitLatencies {
+    public static final String EMIT_LATENCY_TAG = "emit-latency";
+
+    private static final String SERVICE_SUFFIX = "emit-latency.";
+
+    private final String boltService;
+    private final Map<String, LatencyHistogram> histogramsPerStream;
+
+    public EmitLatencies(String boltService) {
+        this.boltService = boltService;
+        this.histogramsPerStream = new ConcurrentHashMap<>();
+    }
+
+    public void record(String stream, long nanos) {
+        LatencyHistogram histogram = histogramsPerStream.get(stream);
+        if (histogram == null) {
+            histogram = histogramsPerStream.computeIfAbsent(stream, s -> LatencyHistogram.ofMicros());
+        }
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    public Iterable<RiemannEvent> flush() {
+        List<RiemannEvent> events = Lists.newArrayList();
+        for (Map.Entry<String, LatencyHistogram> stream : histogramsPerStream.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = stream.getValue().snapshotAndReset();
+            if (snapshot.getCount() > 0) {
+                addEvents(events, stream.getKey(), snapshot);
+            }
+        }
+        return events;
+    }
+
+    private void addEvents(List<RiemannEvent> events, String stream, LatencyHistogram.Snapshot snapshot) {
+        for (RiemannEvent event : snapshot.toEvents(boltService + " " + SERVICE_SUFFIX,
+                AggregatedLatencies.HISTOGRAM_TAG, EMIT_LATENCY_TAG)) {
+            events.add(event
+                    .attribute("tupleEmittedStream", stream)
+                    .attribute("count", snapshot.getCount()));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.utils.MonitoringConstants;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.tuple.Fields;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Appends the emit time field to every stream the wrapped component declares, to match the value appended by
+ * MonitoredOutputCollector when emit times are stamped.
+ */
+class EmitTimeOutputFieldsDeclarer implements OutputFieldsDeclarer {
+    private final OutputFieldsDeclarer delegate;
+
+    EmitTimeOutputFieldsDeclarer(OutputFieldsDeclarer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void declare(Fields fields) {
+        delegate.declare(withEmitTime(fields));
+    }
+
+    @Override
+    public void declare(boolean direct, Fields fields) {
+        delegate.declare(direct, withEmitTime(fields));
+    }
+
+    @Override
+    public void declareStream(String streamId, Fields fields) {
+        delegate.declareStream(streamId, withEmitTime(fields));
+    }
+
+    @Override
+    public void declareStream(String streamId, boolean direct, Fields fields) {
+        delegate.declareStream(streamId, direct, withEmitTime(fields));
+    }
+
+    private static Fields withEmitTime(Fields fields) {
+        List<String> names = new ArrayList<>(fields.toList());
+        names.add(MonitoringConstants.EMIT_TIME_FIELD);
+        return new Fields(names);
+    }
+}
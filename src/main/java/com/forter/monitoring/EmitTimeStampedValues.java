@@ -0,0 +1,29 @@
+package com.forter.monitoring;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/*
+ * The values a bolt emitted, followed by their emit time - a view rather than a copy, so stamping a tuple allocates
+ * just this wrapper. Like the emitted list itself once handed to Storm, the bolt mustn't change it after the emit.
+ */
+class EmitTimeStampedValues extends AbstractList<Object> implements RandomAccess {
+    private final List<Object> values;
+    private final Long emitTimeMillis;
+
+    EmitTimeStampedValues(List<Object> values, long emitTimeMillis) {
+        this.values = values;
+        this.emitTimeMillis = emitTimeMillis;
+    }
+
+    @Override
+    public Object get(int index) {
+        return index == values.size() ? emitTimeMillis : values.get(index);
+    }
+
+    @Override
+    public int size() {
+        return values.size() + 1;
+    }
+}
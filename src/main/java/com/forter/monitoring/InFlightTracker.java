@@ -0,0 +1,254 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Tracks every tuple a spout emitted with a message id until it is acked or failed: how many are pending (against
+ * topology.max.spout.pending), how old the oldest of them is, and the complete latency of all the acked ones.
+ * Message ids are kept in an open addressed (linear probing) table of parallel arrays, mapping each id to its emit
+ * time, with no per tuple allocation. The age index is a doubly linked list through the same slots, in emit order -
+ * emit times only grow, so its head is always the oldest pending tuple and every update is O(1).
+ * A spout's emits, acks and fails all run on its executor thread, so the lock is uncontended except while flushing.
+ * The table grows as needed; ids that are never acked or failed are still removed by the spout's timeout, which fails
+ * them.
+ */
+public class InFlightTracker {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NIL = -1;
+    private static final String SERVICE_SUFFIX = "in-flight.";
+
+    private final String spoutService;
+    private final long maxPending;
+    private final LatencyHistogram completeMicros = LatencyHistogram.ofMicros();
+
+    // Guarded by this
+    private Object[] ids;
+    private int[] hashes;
+    private long[] emitNanos;
+    private int[] older;
+    private int[] newer;
+    private int mask;
+    private int size;
+    private int oldest = NIL;
+    private int newest = NIL;
+    private long failed;
+
+    /**
+     * @param maxPending the spout's topology.max.spout.pending, or 0 if not set.
+     */
+    public InFlightTracker(String spoutService, long maxPending) {
+        this.spoutService = spoutService;
+        this.maxPending = maxPending;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        ids = new Object[capacity];
+        hashes = new int[capacity];
+        emitNanos = new long[capacity];
+        older = new int[capacity];
+        newer = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public synchronized void emitted(Object id, long nowNanos) {
+        final int hash = hash(id);
+        int slot = find(id, hash);
+        if (slot >= 0) {
+            // Emitted again before being acked or failed - its age starts over
+            unlink(slot);
+        } else {
+            if ((size + 1) * 2 > ids.length) {
+                resize(ids.length * 2);
+            }
+            slot = hash & mask;
+            while (ids[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = id;
+            hashes[slot] = hash;
+            size++;
+        }
+        emitNanos[slot] = nowNanos;
+        link(slot);
+    }
+
+    /**
+     * @return false if the id isn't pending, e.g. it was emitted before tracking started.
+     */
+    public synchronized boolean completed(Object id, boolean success, long nowNanos) {
+        final int slot = find(id, hash(id));
+        if (slot < 0) {
+            return false;
+        }
+        if (success) {
+            completeMicros.record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nowNanos - emitNanos[slot])));
+        } else {
+            failed++;
+        }
+        unlink(slot);
+        delete(slot);
+        return true;
+    }
+
+    static int hash(Object id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int find(Object id, int hash) {
+        int slot = hash & mask;
+        Object key;
+        while ((key = ids[slot]) != null) {
+            if (key == id || (hashes[slot] == hash && key.equals(id))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NIL;
+    }
+
+    private void link(int slot) {
+        older[slot] = newest;
+        newer[slot] = NIL;
+        if (newest != NIL) {
+            newer[newest] = slot;
+        } else {
+            oldest = slot;
+        }
+        newest = slot;
+    }
+
+    private void unlink(int slot) {
+        if (older[slot] != NIL) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            oldest = newer[slot];
+        }
+        if (newer[slot] != NIL) {
+            older[newer[slot]] = older[slot];
+        } else {
+            newest = older[slot];
+        }
+    }
+
+    /**
+     * Removes an unlinked slot, moving back the entries of its probe sequence so that lookups still find them.
+     */
+    private void delete(int slot) {
+        ids[slot] = null;
+        size--;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (ids[next] != null) {
+            final int home = hashes[next] & mask;
+            // Move the entry into the hole unless its home lies cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void move(int from, int to) {
+        ids[to] = ids[from];
+        hashes[to] = hashes[from];
+        emitNanos[to] = emitNanos[from];
+        ids[from] = null;
+        // Relink the age list to the entry's new slot
+        older[to] = older[from];
+        newer[to] = newer[from];
+        if (older[to] != NIL) {
+            newer[older[to]] = to;
+        } else {
+            oldest = to;
+        }
+        if (newer[to] != NIL) {
+            older[newer[to]] = to;
+        } else {
+            newest = to;
+        }
+    }
+
+    private void resize(int capacity) {
+        final Object[] oldIds = ids;
+        final int[] oldHashes = hashes;
+        final long[] oldEmitNanos = emitNanos;
+        final int[] oldNewer = newer;
+        int from = oldest;
+        allocate(capacity);
+        oldest = NIL;
+        newest = NIL;
+        // Reinserting in age order rebuilds the age list as it was
+        while (from != NIL) {
+            int slot = oldHashes[from] & mask;
+            while (ids[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = oldIds[from];
+            hashes[slot] = oldHashes[from];
+            emitNanos[slot] = oldEmitNanos[from];
+            link(slot);
+            from = oldNewer[from];
+        }
+    }
+
+    public synchronized int getPending() {
+        return size;
+    }
+
+    /**
+     * @return the age of the oldest pending tuple, or 0 if none is pending.
+     */
+    public synchronized long getOldestAgeNanos(long nowNanos) {
+        return oldest == NIL ? 0 : nowNanos - emitNanos[oldest];
+    }
+
+    /**
+     * @return the pending count, the oldest pending tuple's age and, since the previous flush, the complete latency
+     * percentiles of the acked tuples and the number of failed ones.
+     */
+    public Iterable<RiemannEvent> flush() {
+        final long now = System.nanoTime();
+        final int pending;
+        final long oldestAgeNanos;
+        final long failedCount;
+        synchronized (this) {
+            pending = size;
+            oldestAgeNanos = oldest == NIL ? 0 : now - emitNanos[oldest];
+            failedCount = failed;
+            failed = 0;
+        }
+
+        List<RiemannEvent> events = Lists.newArrayList();
+        events.add(createEvent("pending", pending));
+        if (maxPending > 0) {
+            events.add(createEvent("pending-ratio", (double) pending / maxPending));
+        }
+        events.add(createEvent("oldest-age", LatencyHistogram.Snapshot.toMillis(TimeUnit.NANOSECONDS.toMicros(oldestAgeNanos))));
+        events.add(createEvent("failed", failedCount));
+
+        final LatencyHistogram.Snapshot snapshot = completeMicros.snapshotAndReset();
+        if (snapshot.getCount() > 0) {
+            events.addAll(snapshot.toEvents(spoutService + " " + SERVICE_SUFFIX + " complete-latency",
+                    AggregatedLatencies.HISTOGRAM_TAG));
+        } else {
+            events.add(createEvent("complete-latency count", 0));
+        }
+        return events;
+    }
+
+    private RiemannEvent createEvent(String statistic, double metric) {
+        return new RiemannEvent()
+                .metric(metric)
+                .service(spoutService + " " + SERVICE_SUFFIX + " " + statistic)
+                .tags(AggregatedLatencies.HISTOGRAM_TAG);
+    }
+
+}
@@ -19,7 +19,8 @@ public class Latencies {
     private final AtomicBoolean hasFinished;
 
     public Latencies(Long executeStartNanos, String service, Tuple tuple) {
-        this.latencyMap = Maps.newHashMap();
+        // Emit latencies and the execute end may be registered from different threads without a common lock
+        this.latencyMap = Maps.newConcurrentMap();
         this.setStartNanos(LatencyType.EXECUTE, executeStartNanos);
         this.service = service;
         this.tuple = tuple;
@@ -64,7 +65,7 @@ public class Latencies {
 
     public static class Latency {
         private final Long start;
-        private Long end;
+        private volatile Long end;
 
         public Latency(Long start) {
             this.start = start;
@@ -0,0 +1,124 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A matrix of the execute latencies of a single component, keyed by source component, source stream and outcome.
+ * Each cell has striped count and total time counters and a latency histogram. flush() creates a single summary event
+ * per interval, with a row per cell sorted by its share of the total execute time - showing which inputs dominate
+ * the component's cost.
+ */
+public class LatencyBreakdown {
+    public static final String BREAKDOWN_TAG = "latency-breakdown";
+
+
+    private final String boltService;
+    private final Map<String, Map<String, Cell[]>> cellsPerComponent;
+
+    public LatencyBreakdown(String boltService) {
+        this.boltService = boltService;
+        this.cellsPerComponent = new ConcurrentHashMap<>();
+    }
+
+    public void record(String sourceComponent, String stream, boolean success, long nanos) {
+        Map<String, Cell[]> cellsPerStream = cellsPerComponent.get(sourceComponent);
+        if (cellsPerStream == null) {
+            cellsPerStream = cellsPerComponent.computeIfAbsent(sourceComponent, c -> new ConcurrentHashMap<>());
+        }
+        Cell[] cells = cellsPerStream.get(stream);
+        if (cells == null) {
+            cells = cellsPerStream.computeIfAbsent(stream, s -> new Cell[] {new Cell(), new Cell()});
+        }
+        cells[success ? 0 : 1].record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    /**
+     * @return the summary of the interval since the previous flush, if anything was recorded.
+     */
+    public Optional<RiemannEvent> flush() {
+        List<Row> rows = Lists.newArrayList();
+        long totalCount = 0;
+        long totalMicros = 0;
+        for (Map.Entry<String, Map<String, Cell[]>> component : cellsPerComponent.entrySet()) {
+            for (Map.Entry<String, Cell[]> stream : component.getValue().entrySet()) {
+                for (int outcome = 0; outcome < 2; outcome++) {
+                    Cell cell = stream.getValue()[outcome];
+                    long micros = cell.totalMicros.sumThenReset();
+                    LatencyHistogram.Snapshot snapshot = cell.histogram.snapshotAndReset();
+                    if (snapshot.getCount() > 0) {
+                        rows.add(new Row(component.getKey(), stream.getKey(), outcome == 0, micros, snapshot));
+                        totalCount += snapshot.getCount();
+                        totalMicros += micros;
+                    }
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            return Optional.absent();
+        }
+
+        Collections.sort(rows, new Comparator<Row>() {
+            @Override
+            public int compare(Row a, Row b) {
+                return Long.compare(b.totalMicros, a.totalMicros);
+            }
+        });
+
+        RiemannEvent event = new RiemannEvent()
+                .metric(totalCount)
+                .service(boltService + " latency-breakdown.")
+                .tags(BREAKDOWN_TAG);
+        StringBuilder description = new StringBuilder("source/stream/outcome count meanMs p99Ms maxMs costShare");
+        for (Row row : rows) {
+            String key = row.sourceComponent + "/" + row.stream + "/" + (row.success ? "success" : "failure");
+            String summary = String.format(Locale.ROOT, "%d %.3f %.3f %.3f %.3f",
+                    row.snapshot.getCount(),
+                    LatencyHistogram.Snapshot.toMillis(row.totalMicros) / row.snapshot.getCount(),
+                    LatencyHistogram.Snapshot.toMillis(row.snapshot.getValueAtPercentile(99)),
+                    LatencyHistogram.Snapshot.toMillis(row.snapshot.getMax()),
+                    totalMicros == 0 ? 0.0 : (double) row.totalMicros / totalMicros);
+            description.append('\n').append(key).append(' ').append(summary);
+            event.attribute("breakdown " + key, summary);
+        }
+        return Optional.of(event.description(description.toString()));
+    }
+
+    private static class Cell {
+        private final LongAdder totalMicros = new LongAdder();
+        private final LatencyHistogram histogram = LatencyHistogram.ofMicros();
+
+        private void record(long micros) {
+            totalMicros.add(micros);
+            histogram.record(micros);
+        }
+    }
+
+    private static class Row {
+        private final String sourceComponent;
+        private final String stream;
+        private final boolean success;
+        private final long totalMicros;
+        private final LatencyHistogram.Snapshot snapshot;
+
+        private Row(String sourceComponent, String stream, boolean success, long totalMicros,
+                    LatencyHistogram.Snapshot snapshot) {
+            this.sourceComponent = sourceComponent;
+            this.stream = stream;
+            this.success = success;
+            this.totalMicros = totalMicros;
+            this.snapshot = snapshot;
+        }
+    }
+}
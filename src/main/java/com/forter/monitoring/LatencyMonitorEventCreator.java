@@ -4,9 +4,20 @@ import org.apache.storm.tuple.Tuple;
 import com.forter.monitoring.events.RiemannEvent;
 import com.google.common.cache.RemovalNotification;
 
+import java.util.Collections;
+
 public interface LatencyMonitorEventCreator {
     Iterable<RiemannEvent> createExpiryRemovalEvents(RemovalNotification<Object, Latencies> notification, String boltService);
     Iterable<RiemannEvent> createMonitorKeyMissingEvents(String service, Object latencyId);
-    Iterable<RiemannEvent> createEmitLatencyEvents(long emitMillis, String boltService, Tuple tuple);
+
+    /**
+     * No longer called - emit latencies are recorded into per stream histograms and sent as emit-latency. events, so
+     * there's no per tuple emit-latency event anymore. Kept so that implementations overriding it still compile.
+     */
+    @Deprecated
+    default Iterable<RiemannEvent> createEmitLatencyEvents(long emitMillis, String boltService, Tuple tuple) {
+        return Collections.emptyList();
+    }
+
     Iterable<RiemannEvent> createLatencyEvents(Boolean success, Latencies service, long endTimeMillis, long elapsedMillis, EventProperties properties);
 }
@@ -0,0 +1,188 @@
+package com.forter.monitoring;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Decides which tuples (or spout messages) have their latency tracked.
+ * With a target rate, the sample rate is adjusted every window so that about targetPerSecond tuples per second are
+ * tracked, whatever the load. Streams with their own target are sampled separately; all other streams share the
+ * component's target. Without a target a fixed rate of 1/latencyFraction is used.
+ * Decisions are random rather than by hash code, so they aren't biased by the hash code distribution.
+ * While not every tuple is sampled, the hashes of the recently sampled ids are remembered in a fixed size direct
+ * mapped table, so that a sampled id missing from the latency store can be told apart from an unsampled one. A slot
+ * is overwritten by a later sampled id, so an id may be forgotten - then its missing key is not reported - but an
+ * unsampled id is only taken for a sampled one if it has the same hash.
+ */
+class LatencySampler {
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double MIN_RATE = 1e-6;
+    private static final int SAMPLED_ID_SLOTS = 4096;
+    private static final int NO_ID = 0;
+
+    private final State componentState;
+    private final Map<String, State> streamStates;
+    private final boolean samplingAll;
+    private final AtomicIntegerArray sampledIdHashes;
+
+    LatencySampler(int latencyFraction, double targetPerSecond, Map<String, Double> streamTargetsPerSecond) {
+        final double fixedRate = 1.0 / Math.max(1, latencyFraction);
+        this.componentState = new State(targetPerSecond, fixedRate);
+
+        ImmutableMap.Builder<String, State> streamStates = ImmutableMap.builder();
+        for (Map.Entry<String, Double> streamTarget : streamTargetsPerSecond.entrySet()) {
+            streamStates.put(streamTarget.getKey(), new State(streamTarget.getValue(), fixedRate));
+        }
+        this.streamStates = streamStates.build();
+        this.samplingAll = computeSamplingAll();
+        this.sampledIdHashes = samplingAll ? null : new AtomicIntegerArray(SAMPLED_ID_SLOTS);
+    }
+
+    /**
+     * Parses stream targets in the form "stream1=100,stream2=5".
+     */
+    static Map<String, Double> parseStreamTargets(String streamTargets) {
+        Map<String, Double> targets = Maps.newHashMap();
+        for (Map.Entry<String, String> streamTarget : Monitor.parseAttributesString(streamTargets).entrySet()) {
+            targets.put(streamTarget.getKey(), Double.valueOf(streamTarget.getValue()));
+        }
+        return targets;
+    }
+
+    /**
+     * @param stream the input stream, or null if unknown.
+     * @return true if this tuple's latency should be tracked.
+     */
+    boolean sample(String stream) {
+        return stateOf(stream).sample();
+    }
+
+    /**
+     * Like sample(stream), remembering the id if it is sampled.
+     */
+    boolean sample(Object latencyId, String stream) {
+        if (!stateOf(stream).sample()) {
+            return false;
+        }
+        if (sampledIdHashes != null) {
+            final int hash = hash(latencyId);
+            sampledIdHashes.lazySet(hash & (SAMPLED_ID_SLOTS - 1), hash);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the id was sampled, as far as remembered - always true while every tuple is sampled.
+     */
+    boolean wasSampled(Object latencyId) {
+        if (sampledIdHashes == null) {
+            return true;
+        }
+        final int hash = hash(latencyId);
+        return sampledIdHashes.get(hash & (SAMPLED_ID_SLOTS - 1)) == hash;
+    }
+
+    private static int hash(Object latencyId) {
+        int h = latencyId.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        // An empty slot must not match
+        return h == NO_ID ? 1 : h;
+    }
+
+    /**
+     * @return the rate the given stream is currently sampled at, as reported on events.
+     */
+    String getRateString(String stream) {
+        return stateOf(stream).rateString;
+    }
+
+    double getRate(String stream) {
+        return stateOf(stream).rate;
+    }
+
+    /**
+     * @return true if every tuple is tracked, so an untracked ack means a missing key rather than an unsampled tuple.
+     */
+    boolean isSamplingAll() {
+        return samplingAll;
+    }
+
+    private boolean computeSamplingAll() {
+        if (!componentState.isFixedAtOne()) {
+            return false;
+        }
+        for (State state : streamStates.values()) {
+            if (!state.isFixedAtOne()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private State stateOf(String stream) {
+        if (stream != null && !streamStates.isEmpty()) {
+            State state = streamStates.get(stream);
+            if (state != null) {
+                return state;
+            }
+        }
+        return componentState;
+    }
+
+    private static class State {
+        private final double targetPerSecond;
+        private final LongAdder seen = new LongAdder();
+        private volatile long windowStartNanos = System.nanoTime();
+        private double arrivalsPerSecond = -1;
+        private volatile double rate;
+        private volatile String rateString;
+
+        State(double targetPerSecond, double fixedRate) {
+            this.targetPerSecond = targetPerSecond;
+            setRate(targetPerSecond > 0 ? 1.0 : fixedRate);
+        }
+
+        boolean isFixedAtOne() {
+            return targetPerSecond <= 0 && rate >= 1.0;
+        }
+
+        boolean sample() {
+            if (targetPerSecond > 0) {
+                seen.increment();
+                final long now = System.nanoTime();
+                if (now - windowStartNanos >= WINDOW_NANOS) {
+                    adjust(now);
+                }
+            }
+            final double rate = this.rate;
+            return rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate;
+        }
+
+        private synchronized void adjust(long now) {
+            final long elapsedNanos = now - windowStartNanos;
+            if (elapsedNanos < WINDOW_NANOS) {
+                // Another thread already adjusted this window
+                return;
+            }
+            windowStartNanos = now;
+
+            final double observed = seen.sumThenReset() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+            arrivalsPerSecond = arrivalsPerSecond < 0 ? observed : (arrivalsPerSecond + observed) / 2;
+
+            setRate(arrivalsPerSecond <= targetPerSecond ? 1.0 : Math.max(MIN_RATE, targetPerSecond / arrivalsPerSecond));
+        }
+
+        private void setRate(double rate) {
+            if (rate != this.rate || rateString == null) {
+                this.rateString = Double.toString(rate);
+                this.rate = rate;
+            }
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.utils.MonitoringOverhead;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.Lists;
+import org.apache.storm.tuple.Tuple;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A fixed size store of in flight latencies, with no per entry allocation.
+ * Entries live in preallocated parallel arrays of open addressed (linear probing) hash tables. The store is split into
+ * stripes by key hash, each guarded by its own lock, which is only held for the few array writes of a single call.
+ * The key reference itself is kept and compared on lookup (identity first, then equals), so unlike keys built of
+ * identity hash codes, two live keys never collide. Every entry also has an owner - the Monitor of the task that
+ * started it - which is part of its identity, so a single store can be shared by all the tasks of a worker.
+ *
+ * Expiry is driven by a hashed timing wheel per stripe: every entry is linked (by slot index) into the wheel bucket of
+ * the tick it started in, so scheduling and cancelling are O(1). As all entries share the same time to live a single
+ * wheel spanning it is enough. expire() visits only the buckets of ticks that became expired since its last run, and
+ * removes at most EXPIRY_SLICE entries per lock acquisition.
+ *
+ * Removals other than by remove() - an entry replaced, evicted when the stripe is full or expired - are reported to the
+ * RemovalHandler after the stripe lock is released.
+ * The time spent waiting for the stripe locks on the executor threads' paths is sampled into MonitoringOverhead.
+ */
+class LatencyStore {
+    static final long NONE = Long.MIN_VALUE;
+
+    private static final int EXPIRY_SLICE = 64;
+    private static final int NIL = -1;
+
+    interface RemovalHandler {
+        void onRemoval(Object key, Entry entry, RemovalCause cause);
+    }
+
+    /*
+     * A copy of a removed entry. Callers on the hot path reuse one instance per thread.
+     */
+    static class Entry {
+        Object owner;
+        long executeStartNanos;
+        long emitStartNanos;
+        long emitEndNanos;
+        String service;
+        Tuple tuple;
+
+        Latencies toLatencies() {
+            Latencies latencies = new Latencies(executeStartNanos, service, tuple);
+            if (emitStartNanos != NONE) {
+                latencies.setStartNanos(LatencyType.EMIT, emitStartNanos);
+                if (emitEndNanos != NONE) {
+                    latencies.setEndNanos(LatencyType.EMIT, emitEndNanos);
+                }
+            }
+            return latencies;
+        }
+
+        long getEmitNanos() {
+            return emitStartNanos == NONE || emitEndNanos == NONE ? NONE : emitEndNanos - emitStartNanos;
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final long expireAfterNanos;
+    private final long tickNanos;
+    private final RemovalHandler removalHandler;
+    private final MonitoringOverhead.Timer lockWait = MonitoringOverhead.getInstance().lockWait;
+
+    LatencyStore(long maxSize, long expireAfterNanos, long tickNanos, int concurrency, RemovalHandler removalHandler) {
+        this(maxSize, expireAfterNanos, tickNanos, concurrency, removalHandler, System.nanoTime());
+    }
+
+    /**
+     * @param nowNanos the current time, from which the wheel starts turning.
+     */
+    LatencyStore(long maxSize, long expireAfterNanos, long tickNanos, int concurrency, RemovalHandler removalHandler,
+                 long nowNanos) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, concurrency) * 2 - 1);
+        int maxPerStripe = (int) Math.max(1, (maxSize + stripeCount - 1) / stripeCount);
+        // Entries of the current tick and of every tick within the time to live must be in different buckets
+        int wheelSize = (int) (expireAfterNanos / tickNanos) + 3;
+
+        this.stripes = new Stripe[stripeCount];
+        // Nothing started before now, so the wheel's buckets are in order from the current tick on
+        final long expiredTick = expiredUpToTick(nowNanos, expireAfterNanos, tickNanos);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(maxPerStripe, wheelSize, expiredTick);
+        }
+        this.stripeMask = stripeCount - 1;
+        this.expireAfterNanos = expireAfterNanos;
+        this.tickNanos = tickNanos;
+        this.removalHandler = removalHandler;
+    }
+
+    private static int hash(Object owner, Object key) {
+        int h = (key.hashCode() + 31 * System.identityHashCode(owner)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the last tick whose entries have all outlived the time to live.
+     */
+    private static long expiredUpToTick(long nowNanos, long expireAfterNanos, long tickNanos) {
+        return Math.floorDiv(nowNanos - expireAfterNanos, tickNanos) - 1;
+    }
+
+    private Stripe stripeFor(int hash) {
+        return stripes[(hash >>> 24) & stripeMask];
+    }
+
+    private boolean isExpired(long startNanos, long nowNanos) {
+        return nowNanos - startNanos > expireAfterNanos;
+    }
+
+    void start(Object owner, Object key, long nanos, String service, Tuple tuple) {
+        final int hash = hash(owner, key);
+        final Stripe stripe = stripeFor(hash);
+        final long tick = Math.floorDiv(nanos, tickNanos);
+        Object evictedKey = null;
+        Entry evicted = null;
+        RemovalCause cause = null;
+
+        final long waitStart = lockWait.start();
+        synchronized (stripe) {
+            lockWait.stop(waitStart);
+            int slot = stripe.find(owner, key, hash);
+            if (slot >= 0) {
+                evictedKey = stripe.keys[slot];
+                evicted = stripe.copy(slot, new Entry());
+                cause = RemovalCause.REPLACED;
+                stripe.unlink(slot);
+            } else {
+                if (stripe.size >= stripe.maxSize) {
+                    int oldest = stripe.oldest();
+                    evictedKey = stripe.keys[oldest];
+                    evicted = stripe.copy(oldest, new Entry());
+                    cause = isExpired(evicted.executeStartNanos, nanos) ? RemovalCause.EXPIRED : RemovalCause.SIZE;
+                    stripe.delete(oldest);
+                }
+                slot = stripe.insert(owner, key, hash);
+            }
+            stripe.executeStart[slot] = nanos;
+            stripe.emitStart[slot] = NONE;
+            stripe.emitEnd[slot] = NONE;
+            stripe.services[slot] = service;
+            stripe.tuples[slot] = tuple;
+            stripe.link(slot, tick);
+        }
+
+        if (evicted != null) {
+            removalHandler.onRemoval(evictedKey, evicted, cause);
+        }
+    }
+
+    void mark(Object owner, Object key, LatencyType type, boolean isStart, long nanos) {
+        if (type != LatencyType.EMIT) {
+            return;
+        }
+        final int hash = hash(owner, key);
+        final Stripe stripe = stripeFor(hash);
+
+        final long waitStart = lockWait.start();
+        synchronized (stripe) {
+            lockWait.stop(waitStart);
+            int slot = stripe.find(owner, key, hash);
+            if (slot < 0) {
+                return;
+            }
+            if (isStart) {
+                stripe.emitStart[slot] = nanos;
+                stripe.emitEnd[slot] = NONE;
+            } else if (stripe.emitStart[slot] != NONE) {
+                stripe.emitEnd[slot] = nanos;
+            }
+        }
+    }
+
+    /**
+     * Removes the key, copying its entry into the given one.
+     * @return false if the key isn't in the store, or has already expired.
+     */
+    boolean remove(Object owner, Object key, long nowNanos, Entry into) {
+        final int hash = hash(owner, key);
+        final Stripe stripe = stripeFor(hash);
+        boolean expired;
+
+        final long waitStart = lockWait.start();
+        synchronized (stripe) {
+            lockWait.stop(waitStart);
+            int slot = stripe.find(owner, key, hash);
+            if (slot < 0) {
+                return false;
+            }
+            stripe.copy(slot, into);
+            stripe.delete(slot);
+            expired = isExpired(into.executeStartNanos, nowNanos);
+        }
+
+        if (expired) {
+            removalHandler.onRemoval(key, into, RemovalCause.EXPIRED);
+            return false;
+        }
+        return true;
+    }
+
+    void invalidate(Object owner, Object key) {
+        final int hash = hash(owner, key);
+        final Stripe stripe = stripeFor(hash);
+
+        synchronized (stripe) {
+            int slot = stripe.find(owner, key, hash);
+            if (slot >= 0) {
+                stripe.delete(slot);
+            }
+        }
+    }
+
+    /**
+     * Removes and reports the entries of all ticks that expired since the previous call.
+     * Should be called about once a tick, so entries are reported at most two ticks after they expire.
+     */
+    void expire(long nowNanos) {
+        final long upToTick = expiredUpToTick(nowNanos, expireAfterNanos, tickNanos);
+        final List<Object> expiredKeys = Lists.newArrayList();
+        final List<Entry> expired = Lists.newArrayList();
+
+        for (Stripe stripe : stripes) {
+            boolean done = false;
+            while (!done) {
+                synchronized (stripe) {
+                    done = stripe.expireSlice(upToTick, nowNanos, expireAfterNanos, expiredKeys, expired);
+                }
+
+                for (int i = 0; i < expired.size(); i++) {
+                    removalHandler.onRemoval(expiredKeys.get(i), expired.get(i), RemovalCause.EXPIRED);
+                }
+                expiredKeys.clear();
+                expired.clear();
+            }
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private static class Stripe {
+        private final int maxSize;
+        private final int mask;
+        private final Object[] owners;
+        private final Object[] keys;
+        private final int[] hashes;
+        private final long[] executeStart;
+        private final long[] emitStart;
+        private final long[] emitEnd;
+        private final String[] services;
+        private final Tuple[] tuples;
+        private int size;
+
+        // Timing wheel - buckets are doubly linked lists of slots
+        private final int[] bucketHeads;
+        private final int[] bucketOf;
+        private final int[] wheelNext;
+        private final int[] wheelPrev;
+        private long expiredTick;
+
+        private Stripe(int maxSize, int wheelSize, long expiredTick) {
+            int capacity = Integer.highestOneBit(Math.max(2, maxSize * 2 - 1)) << 1;
+            this.maxSize = maxSize;
+            this.mask = capacity - 1;
+            this.owners = new Object[capacity];
+            this.keys = new Object[capacity];
+            this.hashes = new int[capacity];
+            this.executeStart = new long[capacity];
+            this.emitStart = new long[capacity];
+            this.emitEnd = new long[capacity];
+            this.services = new String[capacity];
+            this.tuples = new Tuple[capacity];
+
+            this.bucketHeads = new int[wheelSize];
+            Arrays.fill(bucketHeads, NIL);
+            this.bucketOf = new int[capacity];
+            this.wheelNext = new int[capacity];
+            this.wheelPrev = new int[capacity];
+            this.expiredTick = expiredTick;
+        }
+
+        private int find(Object owner, Object key, int hash) {
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash && owners[slot] == owner && (keys[slot] == key || keys[slot].equals(key))) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int insert(Object owner, Object key, int hash) {
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            owners[slot] = owner;
+            keys[slot] = key;
+            hashes[slot] = hash;
+            size++;
+            return slot;
+        }
+
+        private int bucketFor(long tick) {
+            return (int) Math.floorMod(tick, (long) bucketHeads.length);
+        }
+
+        private void link(int slot, long tick) {
+            int bucket = bucketFor(tick);
+            int head = bucketHeads[bucket];
+            bucketOf[slot] = bucket;
+            wheelPrev[slot] = NIL;
+            wheelNext[slot] = head;
+            if (head != NIL) {
+                wheelPrev[head] = slot;
+            }
+            bucketHeads[bucket] = slot;
+        }
+
+        private void unlink(int slot) {
+            int prev = wheelPrev[slot];
+            int next = wheelNext[slot];
+            if (prev != NIL) {
+                wheelNext[prev] = next;
+            } else {
+                bucketHeads[bucketOf[slot]] = next;
+            }
+            if (next != NIL) {
+                wheelPrev[next] = prev;
+            }
+        }
+
+        /*
+         * The first entry of the earliest non empty bucket - oldest up to the tick resolution.
+         */
+        private int oldest() {
+            for (long tick = expiredTick + 1; tick <= expiredTick + bucketHeads.length; tick++) {
+                int head = bucketHeads[bucketFor(tick)];
+                if (head != NIL) {
+                    return head;
+                }
+            }
+            return NIL;
+        }
+
+        /**
+         * @return true once all buckets up to the given tick were handled.
+         */
+        private boolean expireSlice(long upToTick, long nowNanos, long expireAfterNanos, List<Object> expiredKeys,
+                                    List<Entry> expired) {
+            // After a long pause every bucket may hold expired entries, but there's no point in going around twice
+            expiredTick = Math.max(expiredTick, upToTick - bucketHeads.length);
+
+            while (expiredTick < upToTick) {
+                int bucket = bucketFor(expiredTick + 1);
+                int slot = bucketHeads[bucket];
+                while (slot != NIL) {
+                    if (expired.size() >= EXPIRY_SLICE) {
+                        return false;
+                    }
+                    int next = wheelNext[slot];
+                    // The bucket may also hold entries of a later lap of the wheel
+                    if (nowNanos - executeStart[slot] > expireAfterNanos) {
+                        expiredKeys.add(keys[slot]);
+                        expired.add(copy(slot, new Entry()));
+                        // Deleting may shift the next entry of the bucket to another slot
+                        next = deleteAndFollow(slot, next);
+                    }
+                    slot = next;
+                }
+                expiredTick++;
+            }
+            return true;
+        }
+
+        private Entry copy(int slot, Entry into) {
+            into.owner = owners[slot];
+            into.executeStartNanos = executeStart[slot];
+            into.emitStartNanos = emitStart[slot];
+            into.emitEndNanos = emitEnd[slot];
+            into.service = services[slot];
+            into.tuple = tuples[slot];
+            return into;
+        }
+
+        private void delete(int slot) {
+            deleteAndFollow(slot, NIL);
+        }
+
+        /*
+         * Backward shift deletion - moves following entries of the probe sequence back, so no tombstones are needed.
+         * Returns the slot the entry at the followed slot ended up in.
+         */
+        private int deleteAndFollow(int slot, int followed) {
+            unlink(slot);
+
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (keys[next] != null) {
+                int home = hashes[next] & mask;
+                // Move the entry if its home slot isn't cyclically between the hole (exclusive) and its current slot
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    move(next, hole);
+                    if (followed == next) {
+                        followed = hole;
+                    }
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            owners[hole] = null;
+            keys[hole] = null;
+            services[hole] = null;
+            tuples[hole] = null;
+            size--;
+            return followed;
+        }
+
+        private void move(int from, int to) {
+            owners[to] = owners[from];
+            keys[to] = keys[from];
+            hashes[to] = hashes[from];
+            executeStart[to] = executeStart[from];
+            emitStart[to] = emitStart[from];
+            emitEnd[to] = emitEnd[from];
+            services[to] = services[from];
+            tuples[to] = tuples[from];
+
+            int prev = wheelPrev[from];
+            int next = wheelNext[from];
+            bucketOf[to] = bucketOf[from];
+            wheelPrev[to] = prev;
+            wheelNext[to] = next;
+            if (prev != NIL) {
+                wheelNext[prev] = to;
+            } else {
+                bucketHeads[bucketOf[to]] = to;
+            }
+            if (next != NIL) {
+                wheelPrev[next] = to;
+            }
+        }
+    }
+}
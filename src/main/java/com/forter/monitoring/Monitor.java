@@ -1,26 +1,36 @@
 package com.forter.monitoring;
 
+import org.apache.storm.generated.GlobalStreamId;
+import org.apache.storm.generated.Grouping;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Tuple;
+import com.forter.monitoring.eventSender.DeferredEventSender;
 import com.forter.monitoring.eventSender.EventSender;
+import com.forter.monitoring.eventSender.EventSlot;
 import com.forter.monitoring.eventSender.RiemannEventSender;
+import com.forter.monitoring.eventSender.RingRiemannEventSender;
+import com.forter.monitoring.events.ExceptionEvent;
 import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.MonitoringConstants;
+import com.forter.monitoring.utils.MonitoringOverhead;
+import com.forter.monitoring.utils.TupleAttributePlans;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.cache.*;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
@@ -34,42 +44,76 @@ public class Monitor implements EventSender {
 
     public static final String BOLT_EXCLUSIONS_EXTRA_ACK_ERROR_PROP = "monitoring.report.exclusions.extra-ack";
     public static final String IGNORED_STREAMS_PROP = "monitoring.stream.ignore";
+    public static final String AGGREGATE_LATENCIES_PROP = "topology.monitoring.latencies.aggregate";
+    public static final String AGGREGATE_INTERVAL_PROP = "topology.monitoring.latencies.aggregate.intervalSeconds";
+    public static final String LATENCY_BREAKDOWN_PROP = "topology.monitoring.latencies.breakdown";
+    public static final String AGGREGATE_ERRORS_PROP = "topology.monitoring.errors.aggregate";
+    public static final String AGGREGATE_ERRORS_INTERVAL_PROP = "topology.monitoring.errors.aggregate.intervalSeconds";
+    public static final String WORKER_MAX_SIZE_PROP = "topology.monitoring.latencies.map.workerMaxSize";
+    public static final String METRICS_PROP = "topology.monitoring.metrics";
+    public static final String METRICS_BUCKET_PROP = "topology.monitoring.metrics.bucketSeconds";
+    public static final String OVERHEAD_INTERVAL_PROP = "topology.monitoring.overhead.intervalSeconds";
+    public static final String IN_FLIGHT_PROP = "topology.monitoring.spout.inFlight";
+    public static final String SAMPLING_TARGET_PROP = "topology.monitoring.sampling.targetPerSecond";
+    public static final String SAMPLING_STREAM_TARGETS_PROP = "topology.monitoring.sampling.streamTargetsPerSecond";
+
+    private static final long AGGREGATE_INTERVAL_SECONDS_DEFAULT = 10L;
+    private static final long AGGREGATE_ERRORS_INTERVAL_SECONDS_DEFAULT = 10L;
+    private static final long METRICS_BUCKET_SECONDS_DEFAULT = 60L;
+    private static final String NO_STREAM = "none";
 
-    private static final int MAX_CONCURRENCY_DEFAULT = 2;
-
-    private static final Long MAX_SIZE_DEFAULT = getEnv("LATENCY_REPORTING_MAP_MAX_SIZE", 1000L);
-    private static final long MAX_TIME_DEFAULT = getEnv("LATENCY_REPORTING_MAX_WAIT", 60L);
-
-    private static final long PERIODIC_CLEANUP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
-
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     private static final Random randomGenerator = new Random();
 
+    private final MonitorRegistry registry;
+    private final MonitoringOverhead overhead;
     private final EventSender eventSender;
-    private final Cache<Object, Latencies> latenciesPerId;
+    private final LatencyStore latenciesPerId;
     private final Map<String, String> customAttributes;
-    private final Object cacheLock;
     private final Set<String> extraAckReportingExclusions;
     private final String boltService;
     private final Set<String> ignoredStreams;
     private final LatencyMonitorEventCreator latencyMonitorEventCreator;
-
-    private int maxConcurrency;
-    private long maxSize;
-    private long maxTime;
+    private final AggregatedLatencies aggregatedLatencies;
+    private final AggregatedErrors aggregatedErrors;
+    private final TransferLatencies transferLatencies;
+    private final EmitLatencies emitLatencies;
+    private final LatencyBreakdown latencyBreakdown;
+    private final LatencySampler sampler;
+    // Set once the owning component registers its Storm metrics
+    private volatile MonitorMetrics metrics;
+    // Set if the owning bolt meters its throughput
+    private volatile ThroughputMeters throughputMeters;
+    // Set if the owning spout tracks its in flight tuples
+    private volatile InFlightTracker inFlight;
+
+    // Flushed by the registry's flusher once due
+    private final long aggregateIntervalMillis;
+    private final long errorsIntervalMillis;
+    private long nextAggregateFlushMillis;
+    private long nextErrorsFlushMillis;
 
     public Monitor(Map conf, final String boltService, EventSender eventSender, LatencyMonitorEventCreator latencyMonitorEventCreator) {
-        this.latenciesPerId = createCache(conf, boltService);
+        this(conf, boltService, eventSender, latencyMonitorEventCreator, 1);
+    }
+
+    /**
+     * @param latencyFraction the fixed sampling rate (1/latencyFraction) used unless a sampling target is configured.
+     */
+    public Monitor(Map conf, final String boltService, EventSender eventSender, LatencyMonitorEventCreator latencyMonitorEventCreator,
+                   int latencyFraction) {
+        this.registry = MonitorRegistry.getInstance();
+        this.overhead = MonitoringOverhead.getInstance();
+        this.sampler = createSampler(conf, latencyFraction);
 
         this.customAttributes = extractCustomEventAttributes(conf);
         this.eventSender = eventSender;
-        this.cacheLock = new Object();
+        if (eventSender instanceof RiemannEventSender) {
+            ((RiemannEventSender) eventSender).setStaticAttributes(customAttributes);
+        } else if (eventSender instanceof DeferredEventSender) {
+            ((DeferredEventSender) eventSender).setStaticAttributes(customAttributes);
+        }
         this.boltService = boltService;
 
-        // Generate an initial delay randomizer so that not all bolt cleanups would run in the same time. Randomizer
-        // value can be between negative and positive PERIODIC_CLEANUP_INTERVAL_MILLIS/2
-        long randomMillis = (randomGenerator.nextLong() % (PERIODIC_CLEANUP_INTERVAL_MILLIS/2));
-
         this.extraAckReportingExclusions = getListConfigurationPropery(conf, BOLT_EXCLUSIONS_EXTRA_ACK_ERROR_PROP);
         this.ignoredStreams = getListConfigurationPropery(conf, IGNORED_STREAMS_PROP);
 
@@ -79,18 +123,160 @@ public class Monitor implements EventSender {
             this.latencyMonitorEventCreator = new DefaultLatencyMonitorEventCreator();
         }
 
-        scheduler.scheduleAtFixedRate(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (cacheLock) {
-                            latenciesPerId.cleanUp();
-                        }
-                    }
-                },
-                PERIODIC_CLEANUP_INTERVAL_MILLIS + randomMillis,
-                PERIODIC_CLEANUP_INTERVAL_MILLIS,
-                TimeUnit.MILLISECONDS);
+        this.aggregatedLatencies = Boolean.TRUE.equals(conf.get(AGGREGATE_LATENCIES_PROP)) ? new AggregatedLatencies(boltService) : null;
+        // Only upstream components that stamp emit times record transfer latencies, otherwise the flush is a no-op
+        this.transferLatencies = new TransferLatencies(boltService);
+        this.emitLatencies = new EmitLatencies(boltService);
+        this.latencyBreakdown = Boolean.TRUE.equals(conf.get(LATENCY_BREAKDOWN_PROP)) ? new LatencyBreakdown(boltService) : null;
+        this.aggregatedErrors = Boolean.TRUE.equals(conf.get(AGGREGATE_ERRORS_PROP)) ? new AggregatedErrors(boltService) : null;
+
+        Object aggregateIntervalConf = conf.get(AGGREGATE_INTERVAL_PROP);
+        Object errorsIntervalConf = conf.get(AGGREGATE_ERRORS_INTERVAL_PROP);
+        this.aggregateIntervalMillis = intervalMillis(aggregateIntervalConf, AGGREGATE_INTERVAL_SECONDS_DEFAULT);
+        this.errorsIntervalMillis = intervalMillis(errorsIntervalConf, AGGREGATE_ERRORS_INTERVAL_SECONDS_DEFAULT);
+
+        // Generate an initial delay randomizer so that not all monitors would flush in the same time
+        final long now = System.currentTimeMillis();
+        this.nextAggregateFlushMillis = now + aggregateIntervalMillis + Math.abs(randomGenerator.nextLong() % aggregateIntervalMillis);
+        this.nextErrorsFlushMillis = now + errorsIntervalMillis;
+
+        this.latenciesPerId = registry.register(this, conf);
+    }
+
+    /**
+     * The flusher runs about once a second, so shorter (or non positive) intervals are raised to a second.
+     */
+    private static long intervalMillis(Object intervalConf, long defaultSeconds) {
+        final long seconds = intervalConf == null ? defaultSeconds : ((Number) intervalConf).longValue();
+        return TimeUnit.SECONDS.toMillis(Math.max(1, seconds));
+    }
+
+    /**
+     * Called by the registry's flusher about once a second.
+     * @return the aggregations whose interval ended, which the registry sends off the flusher's thread.
+     */
+    List<RiemannEvent> flush(long nowMillis) {
+        final List<RiemannEvent> events = Lists.newArrayList();
+        final ThroughputMeters throughputMeters = this.throughputMeters;
+        if (throughputMeters != null) {
+            Iterables.addAll(events, throughputMeters.tick(nowMillis));
+        }
+        if (nowMillis >= nextAggregateFlushMillis) {
+            nextAggregateFlushMillis += aggregateIntervalMillis;
+            if (aggregatedLatencies != null) {
+                Iterables.addAll(events, withSampleRate(aggregatedLatencies.flush()));
+            }
+            Iterables.addAll(events, transferLatencies.flush());
+            Iterables.addAll(events, emitLatencies.flush());
+            final InFlightTracker inFlight = this.inFlight;
+            if (inFlight != null) {
+                Iterables.addAll(events, inFlight.flush());
+            }
+            if (latencyBreakdown != null) {
+                final Optional<RiemannEvent> summary = latencyBreakdown.flush();
+                if (summary.isPresent()) {
+                    events.add(summary.get());
+                }
+            }
+        }
+        if (aggregatedErrors != null && nowMillis >= nextErrorsFlushMillis) {
+            nextErrorsFlushMillis += errorsIntervalMillis;
+            Iterables.addAll(events, aggregatedErrors.flush());
+        }
+        return events;
+    }
+
+    /**
+     * Registers the monitor's Storm metrics with the component's context, unless disabled by METRICS_PROP.
+     * The first component of each worker also registers the worker's shared metrics.
+     */
+    public void registerMetrics(Map conf, TopologyContext context) {
+        if (Boolean.FALSE.equals(conf.get(METRICS_PROP))) {
+            return;
+        }
+        Object bucketConf = conf.get(METRICS_BUCKET_PROP);
+        int bucketSeconds = Ints.checkedCast(bucketConf == null ? METRICS_BUCKET_SECONDS_DEFAULT : ((Number) bucketConf).longValue());
+
+        MonitorMetrics metrics = new MonitorMetrics();
+        metrics.register(context, bucketSeconds);
+        registry.registerWorkerMetrics(context, eventSender, bucketSeconds);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Counts a tuple executed by the monitored bolt, or emitted by the monitored spout, in the throughput metric.
+     */
+    public void recordTuple(String stream) {
+        final MonitorMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordTuple(stream);
+        }
+    }
+
+    /**
+     * Meters the bolt's throughput per input stream and outcome, reported periodically. The streams the bolt subscribes
+     * to are registered up front, so they are reported even while idle.
+     */
+    public void meterThroughput(TopologyContext context) {
+        ThroughputMeters meters = new ThroughputMeters(boltService);
+        Map<GlobalStreamId, Grouping> sources = context.getThisSources();
+        if (sources != null) {
+            for (GlobalStreamId source : sources.keySet()) {
+                meters.register(source.get_streamId());
+            }
+        }
+        this.throughputMeters = meters;
+    }
+
+    /**
+     * Tracks every tuple the monitored spout emits with a message id until it is acked or failed, unless disabled by
+     * IN_FLIGHT_PROP - reporting the pending count, the oldest pending tuple's age and complete latency percentiles.
+     */
+    public void trackInFlight(Map conf) {
+        if (Boolean.FALSE.equals(conf.get(IN_FLIGHT_PROP))) {
+            return;
+        }
+        Object maxPendingConf = conf.get("topology.max.spout.pending");
+        this.inFlight = new InFlightTracker(boltService, maxPendingConf == null ? 0 : ((Number) maxPendingConf).longValue());
+    }
+
+    public void inFlightEmitted(Object messageId) {
+        final InFlightTracker inFlight = this.inFlight;
+        if (inFlight != null) {
+            inFlight.emitted(messageId, System.nanoTime());
+        }
+    }
+
+    public void inFlightCompleted(Object messageId, boolean success) {
+        final InFlightTracker inFlight = this.inFlight;
+        if (inFlight != null) {
+            inFlight.completed(messageId, success, System.nanoTime());
+        }
+    }
+
+    /**
+     * Counts a tuple acked or failed by the monitored bolt, if it meters its throughput.
+     */
+    public void markThroughput(String stream, boolean success) {
+        final ThroughputMeters meters = this.throughputMeters;
+        if (meters != null) {
+            meters.mark(stream, success);
+        }
+    }
+
+    /**
+     * Records how long an emit of the monitored bolt or spout to the stream took, sent as emit-latency histograms.
+     */
+    public void recordEmit(String stream, long nanos) {
+        emitLatencies.record(stream, nanos);
+    }
+
+    /**
+     * Unregisters the monitor from the worker's registry, e.g. on bolt cleanup. Its in flight latencies still expire.
+     * A monitor that is never closed is unregistered once it is garbage collected.
+     */
+    public void close() {
+        registry.unregister(this);
     }
 
     private Set<String> getListConfigurationPropery(Map conf, String configProp) {
@@ -109,47 +295,80 @@ public class Monitor implements EventSender {
         this(new HashMap(), "", null, null);
     }
 
-    private Cache<Object, Latencies>  createCache(Map conf, final String boltService) {
-        initCacheConfig(conf);
-
-        return CacheBuilder.newBuilder()
-                .maximumSize(maxSize)
-                .expireAfterWrite(maxTime, TimeUnit.SECONDS)
-                .concurrencyLevel(maxConcurrency)
-                .removalListener(new RemovalListener<Object, Latencies>() {
-                    // The on removal callback is not instantly called on removal, but I  hope it will be called
-                    // eventually. see:
-                    // http://stackoverflow.com/questions/21986551/guava-cachebuilder-doesnt-call-removal-listener
-                    @Override
-                    public void onRemoval(RemovalNotification<Object, Latencies> notification) {
-                        if (notification.getCause() != RemovalCause.EXPLICIT) {
-                            send(latencyMonitorEventCreator.createExpiryRemovalEvents(notification, boltService));
-                        }
-                    }
-                })
-                .build();
+    /**
+     * Called by the worker's latency store when a latency of this monitor is removed other than by ending it.
+     */
+    void onLatencyRemoved(Object key, LatencyStore.Entry entry, RemovalCause cause) {
+        overhead.recordRemoval(cause);
+        final MonitorMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordRemoval(cause);
+        }
+        final RemovalNotification<Object, Latencies> notification =
+                RemovalNotification.create(key, entry.toLatencies(), cause);
+        // Removal events are created and sent on the registry's sending thread, so neither the executor thread that
+        // caused the removal nor the expiry thread ever waits on the event sender.
+        registry.execute(new Runnable() {
+            @Override
+            public void run() {
+                send(latencyMonitorEventCreator.createExpiryRemovalEvents(notification, boltService));
+            }
+        });
     }
 
-    private void initCacheConfig(Map conf) {
-        Object maxSizeConf = conf.get("topology.monitoring.latencies.map.maxSize");
-        Object maxTimeConf = conf.get("topology.monitoring.latencies.map.maxTimeSeconds");
-        Object maxConcurrencyConf = conf.get("topology.monitoring.latencies.map.maxConcurrency");
+    private LatencySampler createSampler(Map conf, int latencyFraction) {
+        Object targetConf = conf.get(SAMPLING_TARGET_PROP);
+        Object streamTargetsConf = conf.get(SAMPLING_STREAM_TARGETS_PROP);
+
+        double target = targetConf == null ? 0 : ((Number) targetConf).doubleValue();
+        Map<String, Double> streamTargets = streamTargetsConf == null
+                ? new HashMap<String, Double>()
+                : LatencySampler.parseStreamTargets((String) streamTargetsConf);
 
-        maxSize = (maxSizeConf == null ? MAX_SIZE_DEFAULT : (long) maxSizeConf);
-        maxTime = (maxTimeConf == null ? MAX_TIME_DEFAULT : (long) maxTimeConf);
-        maxConcurrency = (maxConcurrencyConf == null ? MAX_CONCURRENCY_DEFAULT: Ints.checkedCast((long) maxConcurrencyConf));
+        return new LatencySampler(latencyFraction, target, streamTargets);
     }
 
     public void startExecute(Object latencyId, Tuple tuple, String service) {
         registerLatency(latencyId, LatencyType.EXECUTE, true, service, tuple, null, null);
     }
 
+    /**
+     * Records the time since the tuple was emitted, if the upstream component stamped its emit time on it.
+     */
+    public void recordTransferLatency(Tuple tuple) {
+        // The stamp is always the last field, so unstamped tuples are told apart without looking up their plan
+        final Fields fields = tuple.getFields();
+        if (fields.size() == 0 || !MonitoringConstants.EMIT_TIME_FIELD.equals(fields.get(fields.size() - 1))) {
+            return;
+        }
+        final long emitTime = TupleAttributePlans.getInstance().get(tuple).getEmitTime(tuple);
+        if (emitTime != TupleAttributePlans.NO_EMIT_TIME) {
+            transferLatencies.record(tuple.getSourceComponent(), tuple.getSourceStreamId(), System.currentTimeMillis() - emitTime);
+        }
+    }
+
+    /**
+     * @param latencyId the id the latency would be tracked by, remembered if sampled.
+     * @param stream the input stream of the tuple, or null if unknown.
+     * @return true if the latency of this tuple should be tracked.
+     */
+    public boolean sample(Object latencyId, String stream) {
+        return sampler.sample(latencyId, stream);
+    }
+
+    /**
+     * @return true if every tuple's latency is tracked.
+     */
+    boolean isSamplingAll() {
+        return sampler.isSamplingAll();
+    }
+
     public void endExecute(Object latencyId, EventProperties attributes, boolean success) {
         registerLatency(latencyId, LatencyType.EXECUTE, false, null, null, attributes, success);
     }
 
     public void ignoreExecute(Object latencyId) {
-        latenciesPerId.invalidate(latencyId);
+        latenciesPerId.invalidate(this, latencyId);
     }
 
     public void startLatency(Object latencyId, LatencyType type) {
@@ -161,73 +380,106 @@ public class Monitor implements EventSender {
 
     }
 
+    /**
+     * Reports an error of the component. If error aggregation is enabled by AGGREGATE_ERRORS_PROP, errors are counted
+     * per fingerprint and only the first of each fingerprint per interval is sent with its stack trace - otherwise
+     * every error is sent with its own.
+     */
+    public void reportError(Throwable t) {
+        if (aggregatedErrors == null) {
+            send(new ExceptionEvent(t).service(boltService));
+            return;
+        }
+        final Optional<RiemannEvent> event = aggregatedErrors.record(t);
+        if (event.isPresent()) {
+            send(event.get());
+        }
+    }
+
     public void send(RiemannEvent event) {
+        overhead.recordEventCreated();
         event.attributes(customAttributes);
 
         if (event.tuple != null) {
-            HashMap<String, String> attributes = Maps.newHashMap();
-
-            if (event.tuple.contains("_queueTime") && event.customAttributes.containsKey("startTimeMillis")) {
-                final String queueTimeString = event.tuple.getValueByField("_queueTime").toString();
-                if (!queueTimeString.equals("unknown")) {
+            if (event.customAttributes.containsKey("startTimeMillis")) {
+                final long queueTime = getQueueTime(event.tuple);
+                if (queueTime != TupleAttributePlans.NO_QUEUE_TIME) {
                     try {
-                        final long queueTime = Long.valueOf(queueTimeString);
-                        final Long startTimeMillis = Long.valueOf(event.customAttributes.get("startTimeMillis"));
+                        final long startTimeMillis = Long.parseLong(event.customAttributes.get("startTimeMillis"));
                         long elapsed = startTimeMillis - queueTime;
-                        attributes.put("timeElapsedToStart", Long.toString(elapsed));
-                        attributes.put("absoluteLatency", Double.toString(elapsed + event.metric));
+                        event.customAttributes.put("timeElapsedToStart", Long.toString(elapsed));
+                        event.customAttributes.put("absoluteLatency", Double.toString(elapsed + event.metric));
                     } catch (NumberFormatException nfe) { /* ignore */ }
                 }
             }
 
             event.customAttributes.put("tupleReceivedComponent", event.tuple.getSourceComponent());
             event.customAttributes.put("tupleReceivedStream", event.tuple.getSourceStreamId());
-
-            event.attributes(attributes);
         }
 
         eventSender.send(event);
     }
 
+    /*
+     * The latency store is striped by key (see maxConcurrency) and its locks are only held while updating an entry.
+     * An execute latency is claimed by atomically removing it, so exactly one ack/fail wins and creates the events -
+     * without holding any lock while the events are sent.
+     */
     private void registerLatency(Object latencyId, LatencyType type, boolean isStart, String service, Tuple tuple,
                                  EventProperties properties, Boolean success) {
-        final long nanos = System.nanoTime();
-        Latencies latencies;
-        synchronized (cacheLock) {
+        final long overheadStart = overhead.registerLatency.start();
+        try {
+            final long nanos = System.nanoTime();
             switch(type) {
                 case EXECUTE:
                     if (isStart) {
-                        latencies = new Latencies(nanos, service, tuple);
-
-                        latenciesPerId.put(latencyId, latencies);
+                        latenciesPerId.start(this, latencyId, nanos, service, tuple);
 
                         if (logger.isDebugEnabled()) {
                             logger.debug("Monitoring latency for key {}", latencyId);
                         }
                     } else {
-                        latencies = latenciesPerId.getIfPresent(latencyId);
-                        if (latencies != null &&  latencies.setEndNanos(type, nanos) && latencies.getLatencyNanos(type).isPresent()) {
-                            latenciesPerId.invalidate(latencyId);
+                        final LatencyStore.Entry entry = registry.getRemovedEntry();
+                        if (latenciesPerId.remove(this, latencyId, nanos, entry)) {
+                            final long executeNanos = nanos - entry.executeStartNanos;
+                            final long emitNanos = entry.getEmitNanos();
+
+                            final MonitorMetrics metrics = this.metrics;
+                            if (metrics != null) {
+                                metrics.recordLatency(entry.tuple == null ? NO_STREAM : entry.tuple.getSourceStreamId(),
+                                        success == null || success, executeNanos);
+                            }
 
-                            long endTimeMillis = System.currentTimeMillis();
-                            long elapsedMillis = NANOSECONDS.toMillis(latencies.getLatencyNanos(type).get());
+                            if (latencyBreakdown != null && entry.tuple != null) {
+                                latencyBreakdown.record(entry.tuple.getSourceComponent(), entry.tuple.getSourceStreamId(),
+                                        success == null || success, executeNanos);
+                            }
 
-                            Iterable<RiemannEvent> event = this.latencyMonitorEventCreator.createLatencyEvents(success, latencies, endTimeMillis, elapsedMillis, properties);
+                            if (aggregatedLatencies != null) {
+                                aggregate(entry.tuple, executeNanos, emitNanos, success == null || success);
+                                break;
+                            }
 
-                            send(event);
+                            long endTimeMillis = System.currentTimeMillis();
+                            long elapsedMillis = NANOSECONDS.toMillis(executeNanos);
+
+                            final RingRiemannEventSender ring = getLatencySlotSender();
+                            if (ring != null) {
+                                sendLatencySlot(ring, entry, success == null || success, endTimeMillis, elapsedMillis, properties);
+                            } else {
+                                Latencies latencies = entry.toLatencies();
+                                latencies.setEndNanos(type, nanos);
 
-                            final Optional<Long> emitLatencyNanos = latencies.getLatencyNanos(LatencyType.EMIT);
-                            if (emitLatencyNanos.isPresent()) {
-                                final long emitMillis = NANOSECONDS.toMillis(emitLatencyNanos.get());
+                                Iterable<RiemannEvent> event = this.latencyMonitorEventCreator.createLatencyEvents(success, latencies, endTimeMillis, elapsedMillis, properties);
 
-                                if (emitMillis >= 5) {
-                                    send(latencyMonitorEventCreator.createEmitLatencyEvents(emitMillis, this.boltService, tuple));
-                                }
+                                send(withSampleRate(event));
                             }
 
                             if (logger.isDebugEnabled()) {
                                 logger.debug("Monitored latency {} for key {}", elapsedMillis, latencyId);
                             }
+                        } else if (!sampler.wasSampled(latencyId)) {
+                            logger.trace("No latency for key {}, which wasn't sampled.", latencyId);
                         } else {
                             if (!extraAckReportingExclusions.contains(this.boltService)) {
                                 send(latencyMonitorEventCreator.createMonitorKeyMissingEvents(service, latencyId));
@@ -238,20 +490,107 @@ public class Monitor implements EventSender {
                     }
                     break;
                 default:
-                    latencies = latenciesPerId.getIfPresent(latencyId);
-                    if (latencies != null) {
-                        if (isStart) {
-                            latencies.setStartNanos(type, nanos);
-                        } else {
-                            latencies.setEndNanos(type, nanos);
-                        }
-                    }
+                    latenciesPerId.mark(this, latencyId, type, isStart, nanos);
                     break;
             }
+        } finally {
+            overhead.registerLatency.stop(overheadStart);
         }
     }
 
-    private void send(Iterable<RiemannEvent> events) {
+    /**
+     * @return the ring sender to fill latency events straight into, if events are sent through one and created by the
+     * default event creator - a custom creator's events are sent as it creates them.
+     */
+    private RingRiemannEventSender getLatencySlotSender() {
+        if (latencyMonitorEventCreator.getClass() != DefaultLatencyMonitorEventCreator.class) {
+            return null;
+        }
+        EventSender sender = eventSender;
+        if (sender instanceof DeferredEventSender) {
+            sender = ((DeferredEventSender) sender).getDelegate();
+        }
+        return sender instanceof RingRiemannEventSender ? (RingRiemannEventSender) sender : null;
+    }
+
+    /**
+     * Fills a claimed ring slot with the latency event the default event creator creates, and the attributes send()
+     * and withSampleRate() add to it, so neither the event nor its tags and attributes collections are allocated.
+     */
+    private void sendLatencySlot(RingRiemannEventSender ring, LatencyStore.Entry entry, boolean success,
+                                 long endTimeMillis, long elapsedMillis, EventProperties properties) {
+        final EventSlot slot = ring.claim();
+        if (slot == null) {
+            return;
+        }
+        overhead.recordEventCreated();
+        try {
+            for (Map.Entry<String, String> attribute : customAttributes.entrySet()) {
+                slot.attribute(attribute.getKey(), attribute.getValue());
+            }
+            ((DefaultLatencyMonitorEventCreator) latencyMonitorEventCreator).fillLatencySlot(slot, success,
+                    entry.service, endTimeMillis, elapsedMillis, properties);
+
+            final Tuple tuple = entry.tuple;
+            if (tuple != null) {
+                final long queueTime = getQueueTime(tuple);
+                if (queueTime != TupleAttributePlans.NO_QUEUE_TIME) {
+                    final long elapsed = endTimeMillis - elapsedMillis - queueTime;
+                    slot.attribute("timeElapsedToStart", Long.toString(elapsed));
+                    slot.attribute("absoluteLatency", Double.toString(elapsed + (double) elapsedMillis));
+                }
+                slot.attribute("tupleReceivedComponent", tuple.getSourceComponent());
+                slot.attribute("tupleReceivedStream", tuple.getSourceStreamId());
+            }
+            slot.attribute("sampleRate", sampler.getRateString(tuple == null ? null : tuple.getSourceStreamId()));
+        } catch (RuntimeException e) {
+            ring.abort(slot);
+            throw e;
+        }
+        ring.publish(slot);
+    }
+
+    /**
+     * Adds the rate the events' streams are currently sampled at to the latency events of sampled tuples, so their
+     * counts can be scaled back up.
+     */
+    private Iterable<RiemannEvent> withSampleRate(Iterable<RiemannEvent> events) {
+        for (RiemannEvent event : events) {
+            final String stream = event.tuple != null ? event.tuple.getSourceStreamId()
+                    : event.customAttributes == null ? null : event.customAttributes.get("tupleReceivedStream");
+            event.attribute("sampleRate", sampler.getRateString(stream));
+        }
+        return events;
+    }
+
+    private void aggregate(Tuple tuple, long executeNanos, long emitNanos, boolean success) {
+        final String stream = tuple == null ? NO_STREAM : tuple.getSourceStreamId();
+
+        aggregatedLatencies.record(stream, AggregatedLatencies.Kind.EXECUTE, success, executeNanos);
+
+        if (emitNanos != LatencyStore.NONE) {
+            aggregatedLatencies.record(stream, AggregatedLatencies.Kind.EMIT, success, emitNanos);
+        }
+
+        if (tuple != null) {
+            final long queueTime = getQueueTime(tuple);
+            if (queueTime != TupleAttributePlans.NO_QUEUE_TIME) {
+                final long startTimeMillis = System.currentTimeMillis() - NANOSECONDS.toMillis(executeNanos);
+                final long queueMillis = startTimeMillis - queueTime;
+                aggregatedLatencies.record(stream, AggregatedLatencies.Kind.QUEUE, success, TimeUnit.MILLISECONDS.toNanos(queueMillis));
+            }
+        }
+    }
+
+    /**
+     * @return the time (epoch millis) the tuple was queued, if the user supplied it in the _queueTime field, or
+     * TupleAttributePlans.NO_QUEUE_TIME.
+     */
+    private static long getQueueTime(Tuple tuple) {
+        return TupleAttributePlans.getInstance().get(tuple).getQueueTime(tuple);
+    }
+
+    void send(Iterable<RiemannEvent> events) {
         for (RiemannEvent event : events) {
             send(event);
         }
@@ -262,7 +601,7 @@ public class Monitor implements EventSender {
             Object attributes = conf.get("topology.riemann.attributes");
             if (attributes instanceof String) {
                 String attributesString = (String) attributes;
-                return parseAttributesString(attributesString);
+                return registry.getAttributes(attributesString);
             } else {
                 logger.warn("Wrong type of custom attributes for riemann, supposed to be String but is {}", attributes.getClass());
             }
@@ -272,11 +611,15 @@ public class Monitor implements EventSender {
     }
 
     /**
-     * @return riemann client if discovered on aws.
+     * @return riemann client if discovered on aws, absent while it is still being discovered.
      */
     public Optional<RiemannEventSender> getRiemannEventSender() {
-        if (eventSender instanceof RiemannEventSender) {
-            return Optional.of((RiemannEventSender)eventSender);
+        EventSender sender = eventSender;
+        if (sender instanceof DeferredEventSender) {
+            sender = ((DeferredEventSender) sender).getDelegate();
+        }
+        if (sender instanceof RiemannEventSender) {
+            return Optional.of((RiemannEventSender) sender);
         }
         return Optional.absent();
     }
@@ -300,12 +643,4 @@ public class Monitor implements EventSender {
         return !this.ignoredStreams.contains(input.getSourceStreamId());
     }
 
-    private static Long getEnv(String name, Long defaultValue) {
-        String value = System.getenv(name);
-
-        if (value == null)
-            return defaultValue;
-
-        return Long.parseLong(value);
-    }
 }
@@ -0,0 +1,124 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.Maps;
+import org.apache.storm.metric.api.IMetric;
+import org.apache.storm.task.TopologyContext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The Storm metrics of a single monitored component, registered with its TopologyContext so that Storm's bucketed
+ * metrics pipeline collects them - shown in the Storm UI and sent to the topology's metrics consumers without a riemann
+ * message per number. Values are maps of flat keys to numbers, reset every bucket:
+ * - monitoring.latency: "<stream>/<outcome>.<p50|p95|p99|max|count>" execute (or spout complete) latencies, in millis.
+ * - monitoring.throughput: "<stream>" tuples executed by a bolt, or emitted by a spout.
+ * - monitoring.removedLatencies: "<cause>" tracked latencies removed without being ended, e.g. expired.
+ */
+public class MonitorMetrics {
+    public static final String LATENCY_METRIC = "monitoring.latency";
+    public static final String THROUGHPUT_METRIC = "monitoring.throughput";
+    public static final String REMOVED_LATENCIES_METRIC = "monitoring.removedLatencies";
+
+
+    private final Map<String, LatencyHistogram[]> latenciesPerStream = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> countsPerStream = new ConcurrentHashMap<>();
+    private final Map<RemovalCause, LongAdder> removalsPerCause = new ConcurrentHashMap<>();
+    // The count of the stream recordTuple saw last - Storm hands out the same stream id instance for every tuple of a
+    // stream, so most tuples are counted without a map lookup. Counts are never removed from countsPerStream.
+    private volatile StreamCount lastStreamCount;
+
+    void register(TopologyContext context, int bucketSeconds) {
+        context.registerMetric(LATENCY_METRIC, new IMetric() {
+            @Override
+            public Object getValueAndReset() {
+                return snapshotLatencies();
+            }
+        }, bucketSeconds);
+        context.registerMetric(THROUGHPUT_METRIC, new IMetric() {
+            @Override
+            public Object getValueAndReset() {
+                return sumThenReset(countsPerStream);
+            }
+        }, bucketSeconds);
+        context.registerMetric(REMOVED_LATENCIES_METRIC, new IMetric() {
+            @Override
+            public Object getValueAndReset() {
+                return sumThenReset(removalsPerCause);
+            }
+        }, bucketSeconds);
+    }
+
+    void recordLatency(String stream, boolean success, long nanos) {
+        LatencyHistogram[] histograms = latenciesPerStream.get(stream);
+        if (histograms == null) {
+            histograms = latenciesPerStream.computeIfAbsent(stream, s -> new LatencyHistogram[] {
+                    LatencyHistogram.ofMicros(), LatencyHistogram.ofMicros()});
+        }
+        histograms[success ? 0 : 1].record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    void recordTuple(String stream) {
+        final StreamCount last = lastStreamCount;
+        if (last != null && last.stream == stream) {
+            last.count.increment();
+            return;
+        }
+        LongAdder count = countsPerStream.get(stream);
+        if (count == null) {
+            count = countsPerStream.computeIfAbsent(stream, s -> new LongAdder());
+        }
+        count.increment();
+        lastStreamCount = new StreamCount(stream, count);
+    }
+
+    void recordRemoval(RemovalCause cause) {
+        LongAdder count = removalsPerCause.get(cause);
+        if (count == null) {
+            count = removalsPerCause.computeIfAbsent(cause, c -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    private Map<String, Number> snapshotLatencies() {
+        Map<String, Number> values = Maps.newHashMap();
+        for (Map.Entry<String, LatencyHistogram[]> stream : latenciesPerStream.entrySet()) {
+            for (int outcome = 0; outcome < 2; outcome++) {
+                LatencyHistogram.Snapshot snapshot = stream.getValue()[outcome].snapshotAndReset();
+                if (snapshot.getCount() == 0) {
+                    continue;
+                }
+                String prefix = stream.getKey() + "/" + (outcome == 0 ? "success" : "failure") + ".";
+                for (Map.Entry<String, Number> statistic : snapshot.getMillisStatistics().entrySet()) {
+                    values.put(prefix + statistic.getKey(), statistic.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    private static <K> Map<String, Number> sumThenReset(Map<K, LongAdder> counts) {
+        Map<String, Number> values = Maps.newHashMap();
+        for (Map.Entry<K, LongAdder> count : counts.entrySet()) {
+            long sum = count.getValue().sumThenReset();
+            if (sum > 0) {
+                values.put(String.valueOf(count.getKey()), sum);
+            }
+        }
+        return values;
+    }
+
+    private static class StreamCount {
+        private final String stream;
+        private final LongAdder count;
+
+        private StreamCount(String stream, LongAdder count) {
+            this.stream = stream;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.eventSender.AsyncRiemannEventSender;
+import com.forter.monitoring.eventSender.DeferredEventSender;
+import com.forter.monitoring.eventSender.EventSender;
+import com.forter.monitoring.eventSender.RiemannEventSender;
+import com.forter.monitoring.eventSender.RingRiemannEventSender;
+import com.forter.monitoring.eventSender.TupleAwareEventSender;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.MonitoringOverhead;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.storm.metric.api.IMetric;
+import org.apache.storm.task.TopologyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The monitoring infrastructure shared by all the tasks of a worker: a single latency store with one expiry job, one
+ * flusher for the in-process aggregations of every Monitor, the parsed riemann attributes, the worker's Storm
+ * metrics and the reporting of the monitoring's own overhead.
+ * Each task's Monitor is a lightweight handle registered here, so the worker's background threads and the memory of
+ * in flight latencies are bounded no matter how many tasks it runs.
+ * Expiry, flushing and sending each have a thread of their own: the expiry and flush threads only hand events to the
+ * sending thread, whose queue is bounded, so a slow riemann never delays expiry or the aggregation intervals.
+ * Monitors are held weakly, so one that is dropped without being closed doesn't stay registered.
+ * The store is created by the first registered Monitor, from its topology conf - all tasks of a worker share it, and
+ * its size is capped by workerMaxSize (8 * maxSize if not set) whatever the number of tasks.
+ */
+class MonitorRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(MonitorRegistry.class);
+
+    private static final int MAX_CONCURRENCY_DEFAULT = 2;
+    // Unless set, the worker's store holds as many latencies as this many tasks did with a store each
+    private static final int WORKER_MAX_SIZE_TASKS = 8;
+
+    private static final Long MAX_SIZE_DEFAULT = getEnv("LATENCY_REPORTING_MAP_MAX_SIZE", 1000L);
+    private static final long MAX_TIME_DEFAULT = getEnv("LATENCY_REPORTING_MAX_WAIT", 60L);
+
+    private static final long EXPIRY_TICK_MILLIS_DEFAULT = 1000L;
+    private static final long FLUSH_TICK_MILLIS = 1000L;
+    private static final String WORKER_METRIC = "monitoring.worker";
+    private static final long OVERHEAD_INTERVAL_SECONDS_DEFAULT = 10L;
+    private static final int SEND_QUEUE_SIZE = 1000;
+
+    private static final MonitorRegistry INSTANCE = new MonitorRegistry();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("riemann-monitor").build());
+    private final ScheduledExecutorService expirer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("riemann-monitor-expiry").build());
+    private final AtomicLong droppedSends = new AtomicLong();
+    private final ThreadPoolExecutor sender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(SEND_QUEUE_SIZE),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("riemann-monitor-sender").build(),
+            new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                    droppedSends.incrementAndGet();
+                }
+            });
+    private final List<WeakReference<Monitor>> monitors = new CopyOnWriteArrayList<>();
+    private final Map<String, Map<String, String>> attributesPerConf = new ConcurrentHashMap<>();
+    // Reused by each thread ending latencies, so that removing an entry allocates nothing
+    private final ThreadLocal<LatencyStore.Entry> removedEntries = ThreadLocal.withInitial(LatencyStore.Entry::new);
+    private volatile LatencyStore latencies;
+    private final AtomicBoolean workerMetricsRegistered = new AtomicBoolean();
+
+    private MonitorRegistry() {
+        scheduler.scheduleAtFixedRate(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final long nowMillis = System.currentTimeMillis();
+                        for (WeakReference<Monitor> reference : monitors) {
+                            final Monitor monitor = reference.get();
+                            if (monitor == null) {
+                                monitors.remove(reference);
+                                continue;
+                            }
+                            try {
+                                send(monitor, monitor.flush(nowMillis));
+                            } catch (Throwable t) {
+                                logger.warn("Failed flushing monitor", t);
+                            }
+                        }
+                    }
+                },
+                FLUSH_TICK_MILLIS,
+                FLUSH_TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    static MonitorRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the worker's latency store, which the monitor keys its latencies in by itself.
+     */
+    LatencyStore register(Monitor monitor, Map conf) {
+        monitors.add(new WeakReference<>(monitor));
+        LatencyStore store = latencies;
+        if (store == null) {
+            synchronized (this) {
+                store = latencies;
+                if (store == null) {
+                    store = createStore(conf);
+                    latencies = store;
+                    scheduleOverheadReport(conf);
+                }
+            }
+        }
+        return store;
+    }
+
+    void unregister(Monitor monitor) {
+        for (WeakReference<Monitor> reference : monitors) {
+            final Monitor registered = reference.get();
+            if (registered == null || registered == monitor) {
+                monitors.remove(reference);
+            }
+        }
+    }
+
+    int getMonitorCount() {
+        int count = 0;
+        for (WeakReference<Monitor> reference : monitors) {
+            if (reference.get() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Monitor firstMonitor() {
+        for (WeakReference<Monitor> reference : monitors) {
+            final Monitor monitor = reference.get();
+            if (monitor != null) {
+                return monitor;
+            }
+        }
+        return null;
+    }
+
+    LatencyStore.Entry getRemovedEntry() {
+        return removedEntries.get();
+    }
+
+    /**
+     * Runs the task on the registry's sending thread, e.g. to send events without blocking an executor thread.
+     * The task is dropped, and counted, if SEND_QUEUE_SIZE tasks are already waiting.
+     */
+    void execute(Runnable task) {
+        sender.execute(task);
+    }
+
+    private void send(final Monitor monitor, final Iterable<RiemannEvent> events) {
+        if (!Iterables.isEmpty(events)) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    monitor.send(events);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the parsed attributes, parsed once per worker.
+     */
+    Map<String, String> getAttributes(String attributesString) {
+        Map<String, String> attributes = attributesPerConf.get(attributesString);
+        if (attributes == null) {
+            attributes = attributesPerConf.computeIfAbsent(attributesString, Monitor::parseAttributesString);
+        }
+        return attributes;
+    }
+
+    /**
+     * Registers the worker's shared metrics with the context of the first component that asks, so they are reported
+     * once per worker: the number of tracked latencies, and the riemann event sender's counters.
+     */
+    void registerWorkerMetrics(TopologyContext context, EventSender eventSender, int bucketSeconds) {
+        if (!workerMetricsRegistered.compareAndSet(false, true)) {
+            return;
+        }
+        while (eventSender instanceof TupleAwareEventSender) {
+            eventSender = ((TupleAwareEventSender) eventSender).getDelegate();
+        }
+        final EventSender sender = eventSender;
+        context.registerMetric(WORKER_METRIC, new IMetric() {
+            @Override
+            public Object getValueAndReset() {
+                Map<String, Number> values = Maps.newHashMap();
+                LatencyStore store = latencies;
+                if (store != null) {
+                    values.put("trackedLatencies", store.size());
+                }
+                values.put("monitors", getMonitorCount());
+                values.put("monitorSendsDropped", droppedSends.get());
+                if (sender instanceof DeferredEventSender) {
+                    // The sender is replaced if riemann moves, so it is looked up every bucket
+                    DeferredEventSender deferred = (DeferredEventSender) sender;
+                    values.put("senderReady", deferred.isReady() ? 1 : 0);
+                    values.put("startupBuffered", deferred.getBuffered());
+                    values.put("startupDropped", deferred.getDropped());
+                    addSenderValues(values, deferred.getDelegate());
+                } else {
+                    addSenderValues(values, sender);
+                }
+                return values;
+            }
+        }, bucketSeconds);
+    }
+
+    /**
+     * Sender counters are cumulative, the consumer derives rates from consecutive buckets.
+     */
+    private static void addSenderValues(Map<String, Number> values, EventSender sender) {
+        if (sender instanceof AsyncRiemannEventSender) {
+            AsyncRiemannEventSender async = (AsyncRiemannEventSender) sender;
+            values.put("senderQueued", async.getQueueSize() + async.getPriorityQueueSize());
+            values.put("senderSent", async.getSent());
+            values.put("senderDropped", async.getDropped());
+            values.put("senderFailed", async.getFailed());
+        } else if (sender instanceof RingRiemannEventSender) {
+            RingRiemannEventSender ring = (RingRiemannEventSender) sender;
+            values.put("senderQueued", ring.getPending());
+            values.put("senderSent", ring.getSent());
+            values.put("senderDropped", ring.getDropped());
+            values.put("senderFailed", ring.getFailed());
+        }
+        if (sender instanceof RiemannEventSender) {
+            RiemannEventSender riemann = (RiemannEventSender) sender;
+            values.put("spilled", riemann.getSpilledEvents());
+            values.put("spillDropped", riemann.getSpillDroppedEvents());
+            values.put("spillUsedBytes", riemann.getSpillUsedBytes());
+            values.put("breakerShed", riemann.getShedEvents());
+            values.put("breakersOpen", riemann.getOpenBreakers());
+        }
+    }
+
+    /**
+     * Sends the worker's monitoring overhead every interval, through the first registered monitor.
+     */
+    private void scheduleOverheadReport(Map conf) {
+        Object intervalConf = conf.get(Monitor.OVERHEAD_INTERVAL_PROP);
+        long intervalSeconds = (intervalConf == null ? OVERHEAD_INTERVAL_SECONDS_DEFAULT : ((Number) intervalConf).longValue());
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        scheduler.scheduleAtFixedRate(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            LatencyStore store = latencies;
+                            Iterable<RiemannEvent> events = MonitoringOverhead.getInstance().flush(store == null ? 0 : store.size());
+                            Monitor monitor = firstMonitor();
+                            if (monitor != null) {
+                                send(monitor, events);
+                            }
+                        } catch (Throwable t) {
+                            logger.warn("Failed reporting monitoring overhead", t);
+                        }
+                    }
+                },
+                intervalSeconds,
+                intervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    private LatencyStore createStore(Map conf) {
+        Object maxSizeConf = conf.get("topology.monitoring.latencies.map.maxSize");
+        Object workerMaxSizeConf = conf.get(Monitor.WORKER_MAX_SIZE_PROP);
+        Object maxTimeConf = conf.get("topology.monitoring.latencies.map.maxTimeSeconds");
+        Object maxConcurrencyConf = conf.get("topology.monitoring.latencies.map.maxConcurrency");
+        Object expiryTickConf = conf.get("topology.monitoring.latencies.map.expiryTickMillis");
+
+        long maxSize = (maxSizeConf == null ? MAX_SIZE_DEFAULT : (long) maxSizeConf);
+        long workerMaxSize = (workerMaxSizeConf == null ? maxSize * WORKER_MAX_SIZE_TASKS : (long) workerMaxSizeConf);
+        long maxTime = (maxTimeConf == null ? MAX_TIME_DEFAULT : (long) maxTimeConf);
+        int maxConcurrency = (maxConcurrencyConf == null ? MAX_CONCURRENCY_DEFAULT : Ints.checkedCast((long) maxConcurrencyConf));
+        long expiryTickMillis = (expiryTickConf == null ? EXPIRY_TICK_MILLIS_DEFAULT : Math.max(1L, (long) expiryTickConf));
+
+        // All the executor threads of the worker share the store's stripes
+        int concurrency = Math.max(maxConcurrency, 2 * Runtime.getRuntime().availableProcessors());
+
+        logger.info("Tracking up to {} latencies of all the worker's tasks for up to {} seconds", workerMaxSize, maxTime);
+        final LatencyStore store = new LatencyStore(workerMaxSize, TimeUnit.SECONDS.toNanos(maxTime),
+                TimeUnit.MILLISECONDS.toNanos(expiryTickMillis), concurrency,
+                new LatencyStore.RemovalHandler() {
+                    @Override
+                    public void onRemoval(Object key, LatencyStore.Entry entry, RemovalCause cause) {
+                        ((Monitor) entry.owner).onLatencyRemoved(key, entry, cause);
+                    }
+                });
+
+        expirer.scheduleAtFixedRate(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            store.expire(System.nanoTime());
+                        } catch (Throwable t) {
+                            logger.warn("Failed expiring latencies", t);
+                        }
+                    }
+                },
+                expiryTickMillis,
+                expiryTickMillis,
+                TimeUnit.MILLISECONDS);
+
+        return store;
+    }
+
+    private static Long getEnv(String name, Long defaultValue) {
+        String value = System.getenv(name);
+
+        if (value == null)
+            return defaultValue;
+
+        return Long.parseLong(value);
+    }
+}
@@ -9,24 +9,21 @@ import com.forter.monitoring.eventSender.EventSender;
 import com.forter.monitoring.eventSender.EventsAware;
 import com.forter.monitoring.eventSender.IgnoreLatencyComponent;
 import com.forter.monitoring.events.RiemannEvent;
-import com.forter.monitoring.utils.PairKey;
 import com.google.common.base.Throwables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /*
 * This class creates a monitored wrapper around other bolt classes to measure the time from execution till ack/fail.
 * Currently ignores emit timings.
 */
 public abstract class MonitoredBolt implements IRichBolt {
-    private static final long THROUGHPUT_REPORT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
-
     private final IRichBolt delegate;
     private final int latencyFraction;
     private final boolean monitorThroughput;
+    private boolean stampEmitTime;
 
     private CustomLatencyAttributesGenerator customAttributesGenerator;
     private LatencyIgnoreToggle latencyIgnoreToggle;
@@ -35,8 +32,11 @@ public abstract class MonitoredBolt implements IRichBolt {
     private transient Logger logger;
 
     private transient Monitor monitor;
-    private transient long lastThroughputSent;
-    private transient long executedInCycle;
+    // The last tuple executed without its latency started. Acking, failing or emitting anchored to it - typically done
+    // by execute itself, on the executor thread - then skips the worker's latency store. Bolts may also ack from their
+    // own threads, so it is volatile: such threads see either this tuple or a later one, and a tuple is executed
+    // once, so a sampled tuple is never taken for unsampled. Tuples acked after the next execute take the lookup.
+    private transient volatile Tuple unsampled;
     private LatencyMonitorEventCreator latencyRemovalEventCreator;
 
     public MonitoredBolt(IRichBolt delegate) {
@@ -56,16 +56,17 @@ public abstract class MonitoredBolt implements IRichBolt {
             logger = LoggerFactory.getLogger(componentId);
 
             EventSender eventSender = getEventSender();
-            monitor = new Monitor(conf, componentId, eventSender, latencyRemovalEventCreator);
+            monitor = new Monitor(conf, componentId, eventSender, latencyRemovalEventCreator, latencyFraction);
+            monitor.registerMetrics(conf, context);
+            if (monitorThroughput) {
+                monitor.meterThroughput(context);
+            }
 
             if(delegate instanceof EventsAware) {
                 ((EventsAware) delegate).setEventSender(eventSender);
             }
 
             delegate.prepare(conf, context, wrapCollector(collector, context));
-
-            this.lastThroughputSent = System.currentTimeMillis();
-            this.executedInCycle = 0L;
         } catch(Throwable t) {
             logger.warn("Error during bolt prepare: ", t);
             throw Throwables.propagate(t);
@@ -73,48 +74,34 @@ public abstract class MonitoredBolt implements IRichBolt {
     }
 
     protected OutputCollector wrapCollector(OutputCollector collector, TopologyContext context) {
-        return new MonitoredOutputCollector(this, collector, this.latencyFraction);
+        return new MonitoredOutputCollector(this, collector);
     }
 
     protected abstract EventSender getEventSender();
 
     @Override
     public void execute(Tuple tuple) {
+        boolean started = false;
         try {
             logger.trace("Entered execute with tuple: ", tuple);
             if (monitor.shouldMonitor(tuple)) {
+                monitor.recordTuple(tuple.getSourceStreamId());
+                monitor.recordTransferLatency(tuple);
                 if (delegate instanceof IgnoreLatencyComponent) {
                     if (!((IgnoreLatencyComponent) delegate).shouldMonitorLatency(tuple)) {
                         return;
                     }
                 }
-                if (tuple.hashCode() % this.latencyFraction == 0) {
-                    monitor.startExecute(pair(tuple), tuple, this.componentId);
+                if (monitor.sample(tuple, tuple.getSourceStreamId())) {
+                    started = true;
+                    monitor.startExecute(tuple, tuple, this.componentId);
                 }
             }
         } finally {
+            unsampled = started ? null : tuple;
             delegate.execute(tuple);
             logger.trace("Finished execution with tuple: ", tuple);
         }
-
-        if (this.monitorThroughput) {
-            this.executedInCycle++;
-            if ((System.currentTimeMillis() - this.lastThroughputSent) > THROUGHPUT_REPORT_INTERVAL_MILLIS) {
-                try {
-                    monitor.send(new RiemannEvent()
-                            .metric(this.executedInCycle)
-                            .service(this.componentId + " latency. count")
-                            .tuple(tuple));
-                } finally {
-                    this.executedInCycle = 0L;
-                    this.lastThroughputSent = System.currentTimeMillis();
-                }
-            }
-        }
-    }
-
-    private PairKey pair(Tuple tuple) {
-        return new PairKey(this, tuple);
     }
 
     @Override
@@ -124,12 +111,20 @@ public abstract class MonitoredBolt implements IRichBolt {
         } catch(Throwable t) {
             logger.info("Error during bolt cleanup: ", t);
             throw Throwables.propagate(t);
+        } finally {
+            if (monitor != null) {
+                monitor.close();
+            }
         }
     }
 
     @Override
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
-        delegate.declareOutputFields(declarer);
+        if (stampEmitTime) {
+            delegate.declareOutputFields(new EmitTimeOutputFieldsDeclarer(declarer));
+        } else {
+            delegate.declareOutputFields(declarer);
+        }
     }
 
     @Override
@@ -157,6 +152,26 @@ public abstract class MonitoredBolt implements IRichBolt {
         this.latencyIgnoreToggle = latencyIgnoreToggle;
     }
 
+    /**
+     * @return true if the tuple is known to have been executed without its latency started, so it isn't in the store.
+     */
+    boolean isUnsampled(Tuple tuple) {
+        return tuple == unsampled;
+    }
+
+    boolean isStampEmitTime() {
+        return stampEmitTime;
+    }
+
+    /**
+     * Stamps every tuple this bolt emits with its emit time, in an extra last field, so that the monitored bolts
+     * receiving them report the transfer latency of each edge. Must be set before the topology is built, as it
+     * changes the declared output fields.
+     */
+    public void setStampEmitTime(boolean stampEmitTime) {
+        this.stampEmitTime = stampEmitTime;
+    }
+
     public Monitor getMonitor() {
         return monitor;
     }
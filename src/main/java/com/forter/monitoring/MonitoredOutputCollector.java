@@ -1,46 +1,51 @@
 package com.forter.monitoring;
 
+import com.forter.monitoring.utils.MonitoringOverhead;
 import org.apache.storm.task.IOutputCollector;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.topology.FailedException;
 import org.apache.storm.tuple.Tuple;
-import com.forter.monitoring.events.ExceptionEvent;
-import com.forter.monitoring.utils.PairKey;
 
 import java.util.Collection;
 import java.util.List;
 
+/*
+ * All of OutputCollector's emit variants - anchored or not - funnel into emit(streamId, anchors, tuple) and
+ * emitDirect(taskId, streamId, anchors, tuple), so timing those two records every emit of the bolt.
+ */
 public class MonitoredOutputCollector extends OutputCollector {
     private final Monitor monitor;
     private final MonitoredBolt monitoredBolt;
-    private final int latencyFraction;
     private final IOutputCollector delegate;
+    private final MonitoringOverhead.Timer overhead = MonitoringOverhead.getInstance().collector;
 
-    MonitoredOutputCollector(MonitoredBolt monitoredBolt, IOutputCollector delegate, int latencyFraction) {
+    MonitoredOutputCollector(MonitoredBolt monitoredBolt, IOutputCollector delegate) {
         super(delegate);
         this.monitoredBolt = monitoredBolt;
         this.monitor = monitoredBolt.getMonitor();
-        this.latencyFraction = latencyFraction;
         this.delegate = delegate;
     }
 
     @Override
     public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
         if (anchors != null) {
+            // Marking an anchor that isn't sampled is a no-op, skipped altogether when known
             for (Tuple t : anchors) {
-                if (shouldMonitorFraction(t)) {
-                    monitor.startLatency(pair(t), LatencyType.EMIT);
+                if (!monitoredBolt.isUnsampled(t)) {
+                    monitor.startLatency(t, LatencyType.EMIT);
                 }
             }
         }
 
+        final long start = System.nanoTime();
         try {
-            return super.emit(streamId, anchors, tuple);
+            return super.emit(streamId, anchors, stampEmitTime(tuple));
         } finally {
+            monitor.recordEmit(streamId, System.nanoTime() - start);
             if (anchors != null) {
                 for (Tuple t : anchors) {
-                    if (shouldMonitorFraction(t)) {
-                        monitor.endLatency(pair(t), LatencyType.EMIT);
+                    if (!monitoredBolt.isUnsampled(t)) {
+                        monitor.endLatency(t, LatencyType.EMIT);
                     }
                 }
             }
@@ -49,30 +54,41 @@ public class MonitoredOutputCollector extends OutputCollector {
 
     @Override
     public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
-        super.emitDirect(taskId, streamId, anchors, tuple);
+        final long start = System.nanoTime();
+        try {
+            super.emitDirect(taskId, streamId, anchors, stampEmitTime(tuple));
+        } finally {
+            monitor.recordEmit(streamId, System.nanoTime() - start);
+        }
     }
 
     @Override
     public void ack(Tuple input) {
-        if (shouldMonitorFraction(input) && monitor.shouldMonitor(input)) {
+        final long start = overhead.start();
+        if (!monitoredBolt.isUnsampled(input) && monitor.shouldMonitor(input)) {
             if (shouldIgnore(input, true)) {
-                monitor.ignoreExecute(pair(input));
+                monitor.ignoreExecute(input);
             } else {
-                monitor.endExecute(pair(input), getCustomAttributes(input), true);
+                monitor.endExecute(input, getCustomAttributes(input), true);
             }
         }
+        monitor.markThroughput(input.getSourceStreamId(), true);
+        overhead.stop(start);
         super.ack(input);
     }
 
     @Override
     public void fail(Tuple input) {
-        if (shouldMonitorFraction(input) && monitor.shouldMonitor(input)) {
+        final long start = overhead.start();
+        if (!monitoredBolt.isUnsampled(input) && monitor.shouldMonitor(input)) {
             if (shouldIgnore(input, false)) {
-                monitor.ignoreExecute(pair(input));
+                monitor.ignoreExecute(input);
             } else {
-                monitor.endExecute(pair(input), getCustomAttributes(input), false);
+                monitor.endExecute(input, getCustomAttributes(input), false);
             }
         }
+        monitor.markThroughput(input.getSourceStreamId(), false);
+        overhead.stop(start);
         super.fail(input);
     }
 
@@ -86,7 +102,7 @@ public class MonitoredOutputCollector extends OutputCollector {
             }
         }
 
-        monitor.send(new ExceptionEvent(t).service(this.monitoredBolt.componentId));
+        monitor.reportError(t);
         super.reportError(t);
     }
 
@@ -104,12 +120,12 @@ public class MonitoredOutputCollector extends OutputCollector {
         return null;
     }
 
-    private boolean shouldMonitorFraction(Tuple t) {
-        return t.hashCode() % latencyFraction == 0;
-    }
-
-    private PairKey pair(Tuple tuple) {
-        return new PairKey(this.monitoredBolt, tuple);
+    private List<Object> stampEmitTime(List<Object> tuple) {
+        if (!monitoredBolt.isStampEmitTime()) {
+            return tuple;
+        }
+        // The emitted list may be immutable, so the time is appended by a view
+        return new EmitTimeStampedValues(tuple, System.currentTimeMillis());
     }
 
     public IOutputCollector getDelegate() {
@@ -8,11 +8,13 @@ import com.forter.monitoring.eventSender.EventsAware;
 import com.forter.monitoring.events.RiemannEvent;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 /*
@@ -28,6 +30,10 @@ public abstract class MonitoredSpout implements IRichSpout {
     private String spoutService;
     private Optional<String> idName;
     private LatencyMonitorEventCreator latencyRemovalEventCreator = null;
+    // The pending message ids whose latency was sampled, or null while every id is. A spout's emits, acks and fails all
+    // run on its executor thread, and every emitted id is eventually acked or failed (if only by the message timeout),
+    // so this is exact and bounded by the pending ids.
+    private transient Set<Object> sampledIds;
 
     public MonitoredSpout(IRichSpout delegate, int latencyFraction) {
         this.delegate = delegate;
@@ -49,7 +55,10 @@ public abstract class MonitoredSpout implements IRichSpout {
 
         EventSender eventSender = createEventSender(conf);
 
-        monitor = new Monitor(conf, spoutService, eventSender, latencyRemovalEventCreator);
+        monitor = new Monitor(conf, spoutService, eventSender, latencyRemovalEventCreator, latencyFraction);
+        monitor.registerMetrics(conf, context);
+        monitor.trackInFlight(conf);
+        sampledIds = monitor.isSamplingAll() ? null : Sets.newHashSet();
 
         injectEventSender(delegate, monitor);
 
@@ -57,19 +66,42 @@ public abstract class MonitoredSpout implements IRichSpout {
             delegate.open(conf, context, new SpoutOutputCollector(collector) {
                 @Override
                 public List<Integer> emit(String streamId, List<Object> tuple, Object messageId) {
-                    if (shouldMonitorFraction(messageId)) {
-                        monitor.startExecute(messageId, null, spoutService);
+                    monitor.recordTuple(streamId);
+                    if (messageId != null) {
+                        monitor.inFlightEmitted(messageId);
+                        if (monitor.sample(messageId, streamId)) {
+                            if (sampledIds != null) {
+                                sampledIds.add(messageId);
+                            }
+                            monitor.startExecute(messageId, null, spoutService);
+                        }
+                    }
+                    final long start = System.nanoTime();
+                    try {
+                        return super.emit(streamId, tuple, messageId);
+                    } finally {
+                        monitor.recordEmit(streamId, System.nanoTime() - start);
                     }
-                    List<Integer> emitResult = super.emit(streamId, tuple, messageId);
-                    return emitResult;
                 }
 
                 @Override
                 public void emitDirect(int taskId, String streamId, List<Object> tuple, Object messageId) {
-                    if (shouldMonitorFraction(messageId)) {
+                    monitor.recordTuple(streamId);
+                    if (messageId != null) {
+                        monitor.inFlightEmitted(messageId);
+                        if (monitor.sample(messageId, streamId)) {
+                            if (sampledIds != null) {
+                                sampledIds.add(messageId);
+                            }
+                            monitor.startExecute(messageId, null, spoutService);
+                        }
+                    }
+                    final long start = System.nanoTime();
+                    try {
                         super.emitDirect(taskId, streamId, tuple, messageId);
+                    } finally {
+                        monitor.recordEmit(streamId, System.nanoTime() - start);
                     }
-                    monitor.startExecute(messageId, null, spoutService);
                 }
             });
         } catch(Throwable t) {
@@ -80,7 +112,13 @@ public abstract class MonitoredSpout implements IRichSpout {
 
     @Override
     public void close() {
-        delegate.close();
+        try {
+            delegate.close();
+        } finally {
+            if (monitor != null) {
+                monitor.close();
+            }
+        }
     }
 
     @Override
@@ -95,14 +133,9 @@ public abstract class MonitoredSpout implements IRichSpout {
 
     @Override
     public void ack(Object id) {
-        if (shouldMonitorFraction(id)) {
-            if (idName.isPresent()) {
-                EventProperties props = new EventProperties();
-                props.getAttributes().put(idName.get(), String.valueOf(id));
-                monitor.endExecute(id, props, true);
-            } else {
-                monitor.endExecute(id, null, true);
-            }
+        if (id != null) {
+            monitor.inFlightCompleted(id, true);
+            endExecute(id, true);
         }
         try {
             delegate.ack(id);
@@ -114,14 +147,9 @@ public abstract class MonitoredSpout implements IRichSpout {
 
     @Override
     public void fail(Object id) {
-        if (shouldMonitorFraction(id)) {
-            if (idName.isPresent()) {
-                EventProperties props = new EventProperties();
-                props.getAttributes().put(idName.get(), String.valueOf(id));
-                monitor.endExecute(id, props, false);
-            } else {
-                monitor.endExecute(id, null, false);
-            }
+        if (id != null) {
+            monitor.inFlightCompleted(id, false);
+            endExecute(id, false);
         }
         try {
             delegate.fail(id);
@@ -131,8 +159,20 @@ public abstract class MonitoredSpout implements IRichSpout {
         }
     }
 
-    private boolean shouldMonitorFraction(Object t) {
-        return t.hashCode() % latencyFraction == 0;
+    /**
+     * Ends the latency of a sampled id - unsampled ids are skipped without formatting the id or looking it up.
+     */
+    private void endExecute(Object id, boolean success) {
+        if (sampledIds != null && !sampledIds.remove(id)) {
+            return;
+        }
+        if (idName.isPresent()) {
+            EventProperties props = new EventProperties();
+            props.getAttributes().put(idName.get(), String.valueOf(id));
+            monitor.endExecute(id, props, success);
+        } else {
+            monitor.endExecute(id, null, success);
+        }
     }
 
     @Override
@@ -0,0 +1,123 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Meters a bolt's throughput per input stream and outcome (acked or failed). Marking a tuple is a single striped
+ * increment on the executor thread; everything else runs on the registry's flusher, which ticks the meters about once
+ * a second into 1, 5 and 15 second exponentially weighted moving rates (per second), and sends them with the count
+ * since the previous report every REPORT_INTERVAL_MILLIS - on time, whether tuples arrive or not.
+ * Streams the bolt subscribes to can be registered up front, so that idle streams report zero rather than nothing.
+ */
+public class ThroughputMeters {
+    private static final long REPORT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long[] WINDOW_SECONDS = {1, 5, 15};
+    private static final String ACKED = "acked";
+    private static final String FAILED = "failed";
+    // The count's original service, which clashes with the latency count - sent as well until dashboards moved off it
+    private static final String LEGACY_COUNT_STATISTIC = "latency. count";
+
+    private final String boltService;
+    private final Map<String, Meter[]> metersPerStream = new ConcurrentHashMap<>();
+    private long lastTickNanos = System.nanoTime();
+    private long nextReportMillis = System.currentTimeMillis() + REPORT_INTERVAL_MILLIS;
+
+    public ThroughputMeters(String boltService) {
+        this.boltService = boltService;
+    }
+
+    public void register(String stream) {
+        meters(stream);
+    }
+
+    public void mark(String stream, boolean success) {
+        meters(stream)[success ? 0 : 1].uncounted.increment();
+    }
+
+    private Meter[] meters(String stream) {
+        Meter[] meters = metersPerStream.get(stream);
+        if (meters == null) {
+            meters = metersPerStream.computeIfAbsent(stream, s -> new Meter[] {new Meter(), new Meter()});
+        }
+        return meters;
+    }
+
+    /**
+     * Updates the rates with the tuples marked since the previous tick. Called by a single thread.
+     * @return the throughput events, if a report is due.
+     */
+    public Iterable<RiemannEvent> tick(long nowMillis) {
+        final long now = System.nanoTime();
+        final double elapsedSeconds = (now - lastTickNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastTickNanos = now;
+        if (elapsedSeconds <= 0) {
+            return Collections.emptyList();
+        }
+        for (Meter[] meters : metersPerStream.values()) {
+            for (Meter meter : meters) {
+                meter.tick(elapsedSeconds);
+            }
+        }
+
+        if (nowMillis < nextReportMillis) {
+            return Collections.emptyList();
+        }
+        nextReportMillis += REPORT_INTERVAL_MILLIS;
+        List<RiemannEvent> events = Lists.newArrayList();
+        for (Map.Entry<String, Meter[]> stream : metersPerStream.entrySet()) {
+            addEvents(events, stream.getKey(), ACKED, stream.getValue()[0]);
+            addEvents(events, stream.getKey(), FAILED, stream.getValue()[1]);
+        }
+        return events;
+    }
+
+    private void addEvents(List<RiemannEvent> events, String stream, String outcome, Meter meter) {
+        events.add(createEvent(stream, outcome, "throughput. count", meter.counted));
+        events.add(createEvent(stream, outcome, LEGACY_COUNT_STATISTIC, meter.counted));
+        meter.counted = 0;
+        for (int i = 0; i < WINDOW_SECONDS.length; i++) {
+            events.add(createEvent(stream, outcome, "throughput. rate" + WINDOW_SECONDS[i] + "s", meter.rates[i]));
+        }
+    }
+
+    private RiemannEvent createEvent(String stream, String outcome, String statistic, double metric) {
+        return new RiemannEvent()
+                .metric(metric)
+                .service(boltService + " " + statistic)
+                .tags("throughput")
+                .attribute("tupleReceivedStream", stream)
+                .attribute("outcome", outcome);
+    }
+
+    private static class Meter {
+        private final LongAdder uncounted = new LongAdder();
+        // Only touched by the ticking thread
+        private final double[] rates = new double[WINDOW_SECONDS.length];
+        private boolean ticked;
+        private long counted;
+
+        void tick(double elapsedSeconds) {
+            final long count = uncounted.sumThenReset();
+            counted += count;
+            final double rate = count / elapsedSeconds;
+            for (int i = 0; i < rates.length; i++) {
+                if (!ticked) {
+                    rates[i] = rate;
+                } else {
+                    // The weight of the new rate, for the actual time since the previous tick
+                    final double alpha = 1 - Math.exp(-elapsedSeconds / WINDOW_SECONDS[i]);
+                    rates[i] += alpha * (rate - rates[i]);
+                }
+            }
+            ticked = true;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Holds in-process histograms of the time tuples took from being emitted upstream until this component started
+ * executing them - transfer plus receive queue time - per incoming edge (source component and stream).
+ * The emit time is stamped on the tuples by the upstream MonitoredOutputCollector, with the upstream worker's clock,
+ * so edges between hosts include their clock skew.
+ */
+public class TransferLatencies {
+    private static final String SERVICE_SUFFIX = "transfer-latency.";
+
+    private final String boltService;
+    private final Map<String, Map<String, LatencyHistogram>> histogramsPerComponent;
+
+    public TransferLatencies(String boltService) {
+        this.boltService = boltService;
+        this.histogramsPerComponent = new ConcurrentHashMap<>();
+    }
+
+    public void record(String sourceComponent, String stream, long millis) {
+        Map<String, LatencyHistogram> histogramsPerStream = histogramsPerComponent.get(sourceComponent);
+        if (histogramsPerStream == null) {
+            histogramsPerStream = histogramsPerComponent.computeIfAbsent(sourceComponent, c -> new ConcurrentHashMap<>());
+        }
+        LatencyHistogram histogram = histogramsPerStream.get(stream);
+        if (histogram == null) {
+            histogram = histogramsPerStream.computeIfAbsent(stream, s -> LatencyHistogram.ofMicros());
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toMicros(Math.max(0, millis)));
+    }
+
+    public Iterable<RiemannEvent> flush() {
+        List<RiemannEvent> events = Lists.newArrayList();
+        for (Map.Entry<String, Map<String, LatencyHistogram>> component : histogramsPerComponent.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> stream : component.getValue().entrySet()) {
+                LatencyHistogram.Snapshot snapshot = stream.getValue().snapshotAndReset();
+                if (snapshot.getCount() > 0) {
+                    addEvents(events, component.getKey(), stream.getKey(), snapshot);
+                }
+            }
+        }
+        return events;
+    }
+
+    private void addEvents(List<RiemannEvent> events, String sourceComponent, String stream,
+                           LatencyHistogram.Snapshot snapshot) {
+        for (RiemannEvent event : snapshot.toEvents(boltService + " " + SERVICE_SUFFIX,
+                AggregatedLatencies.HISTOGRAM_TAG)) {
+            events.add(event
+                    .attribute("tupleReceivedComponent", sourceComponent)
+                    .attribute("tupleReceivedStream", stream)
+                    .attribute("count", snapshot.getCount()));
+        }
+    }
+}
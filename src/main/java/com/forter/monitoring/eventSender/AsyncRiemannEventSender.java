@@ -0,0 +1,233 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.RiemannConnection;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A riemann event sender that never touches the network on the calling thread.
+ * Events are put in a bounded queue, and a dedicated flusher thread sends them in multi-event riemann messages, once
+ * batchSize events are pending or lingerMillis passed since the first pending event.
+ * When the queue is full the overflow policy decides which event is dropped, or how long the caller may block.
+ * Priority events (exceptions and unrecognized latency keys) have a lane of their own: each batch starts with the
+ * pending priority events, and a full queue of routine events never drops them.
+ */
+public class AsyncRiemannEventSender extends RiemannEventSender {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncRiemannEventSender.class);
+    private static final int MIN_PRIORITY_QUEUE_SIZE = 16;
+    // Bounds how long an idle flusher takes to notice a priority event
+    private static final long IDLE_POLL_MILLIS = 10;
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK
+    }
+
+    private final BlockingQueue<RiemannEvent> queue;
+    private final BlockingQueue<RiemannEvent> priorityQueue;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final Thread flusher;
+    private volatile boolean running;
+    // Set when close() gave up on the flusher, which then stops without sending what is left
+    private volatile boolean stopped;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    public AsyncRiemannEventSender(RiemannConnection riemannConnection, int queueSize, int batchSize, long lingerMillis,
+                                   OverflowPolicy overflowPolicy, long blockTimeoutMillis) {
+        super(riemannConnection);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.priorityQueue = new ArrayBlockingQueue<>(Math.max(MIN_PRIORITY_QUEUE_SIZE, queueSize / 8));
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.running = true;
+
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "riemann-async-sender");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void send(RiemannEvent event) {
+        // Keep the time the event was produced, not the time it is flushed
+        event.time(System.currentTimeMillis() / 1000L);
+
+        boolean added;
+        if (isPriority(event)) {
+            added = priorityQueue.offer(event);
+        } else {
+            added = enqueue(event);
+        }
+
+        if (added) {
+            enqueued.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private boolean enqueue(RiemannEvent event) {
+        boolean added;
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                added = queue.offer(event);
+                while (!added) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                    added = queue.offer(event);
+                }
+                break;
+            case BLOCK:
+                try {
+                    added = queue.offer(event, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    added = false;
+                }
+                break;
+            default:
+                added = queue.offer(event);
+                break;
+        }
+        return added;
+    }
+
+    private void flushLoop() {
+        List<RiemannEvent> batch = Lists.newArrayListWithCapacity(batchSize);
+        while (!stopped && (running || !queue.isEmpty() || !priorityQueue.isEmpty())) {
+            try {
+                // Priority events don't linger for a fuller batch
+                final boolean priority = priorityQueue.drainTo(batch, batchSize) > 0;
+                if (!priority) {
+                    RiemannEvent first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+
+                long deadline = System.nanoTime() + (priority ? 0 : lingerNanos);
+                while (batch.size() < batchSize) {
+                    if (priorityQueue.drainTo(batch, batchSize - batch.size()) > 0
+                            || queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    RiemannEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                sendBatch(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendBatch(List<RiemannEvent> batch) {
+        try {
+            List<Proto.Event> events = Lists.newArrayListWithCapacity(batch.size());
+            List<Class<?>> eventClasses = Lists.newArrayListWithCapacity(batch.size());
+            for (RiemannEvent event : batch) {
+                events.add(toEventDSL(event).time(event.time).build());
+                eventClasses.add(event.getClass());
+            }
+
+            sendEvents(events, eventClasses);
+
+            sent.addAndGet(events.size());
+            batches.incrementAndGet();
+            maxBatchSize.accumulateAndGet(events.size(), Math::max);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Sent batch of {} events", events.size());
+            }
+        } catch (Throwable t) {
+            failed.addAndGet(unsentCount(t, batch.size()));
+            logSendFailure("batch send attempt of " + batch.size() + " events", t);
+        }
+    }
+
+    /**
+     * Stops the flusher after sending the events already queued - or, if that takes over CLOSE_TIMEOUT_MILLIS,
+     * interrupts it and drops them.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        flusher.join(CLOSE_TIMEOUT_MILLIS);
+        if (flusher.isAlive()) {
+            logger.warn("Riemann async sender didn't finish sending within {}ms, dropping {} queued events",
+                    CLOSE_TIMEOUT_MILLIS, queue.size() + priorityQueue.size());
+            stopped = true;
+            flusher.interrupt();
+        }
+        super.close();
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getPriorityQueueSize() {
+        return priorityQueue.size();
+    }
+}
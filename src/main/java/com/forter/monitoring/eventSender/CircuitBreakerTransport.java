@@ -0,0 +1,166 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Stops sending to a failing or slow transport instead of letting every send fail or block on its own.
+ * After failureThreshold consecutive sends that failed or took longer than slowCallMillis the circuit opens: sends
+ * fail at once with a shared, stack-less OpenException, and the transport reports itself disconnected so senders spill
+ * or fail over. After openMillis a single probe send is let through - the circuit closes if it succeeds in time, and
+ * opens again otherwise.
+ */
+public class CircuitBreakerTransport implements RiemannTransport {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerTransport.class);
+    private static final long NOT_OPEN_NANOS = Long.MAX_VALUE / 2;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Thrown by sends while the circuit is open. A single instance without a stack trace, so shedding costs nothing.
+     */
+    public static class OpenException extends IOException {
+        private static final OpenException INSTANCE = new OpenException();
+
+        private OpenException() {
+            super("Riemann circuit breaker is open");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private final RiemannTransport transport;
+    private final String name;
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    private final AtomicInteger state = new AtomicInteger(State.CLOSED.ordinal());
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    // Only written by the sender that opened the circuit, after opening it - until then it is far ahead, so a circuit
+    // just opened is never mistaken for one due for a probe
+    private volatile long openUntilNanos = System.nanoTime() + NOT_OPEN_NANOS;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    public CircuitBreakerTransport(RiemannTransport transport, String name, int failureThreshold, long slowCallMillis,
+                                   long openMillis) {
+        this.transport = transport;
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    @Override
+    public void send(List<Proto.Event> events) throws IOException {
+        // The outcome is judged by the state the send started in - a send that started while the circuit was closed
+        // must not decide a probe that started after it
+        final State started = allowSend();
+        if (started == null) {
+            shed.addAndGet(events.size());
+            throw OpenException.INSTANCE;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            transport.send(events);
+        } catch (Throwable t) {
+            // Any failure counts, or a failed probe would leave the circuit half open for good
+            onFailure(started);
+            throw t;
+        }
+        if (System.nanoTime() - start > slowCallNanos) {
+            onFailure(started);
+        } else {
+            onSuccess(started);
+        }
+    }
+
+    /**
+     * @return CLOSED for a send through the closed circuit, HALF_OPEN for the probe, or null if the send is shed.
+     */
+    private State allowSend() {
+        final int current = state.get();
+        if (current == State.CLOSED.ordinal()) {
+            return State.CLOSED;
+        }
+        // Only the sender that moves the circuit to half open probes the transport
+        if (current == State.OPEN.ordinal() && System.nanoTime() - openUntilNanos >= 0
+                && state.compareAndSet(State.OPEN.ordinal(), State.HALF_OPEN.ordinal())) {
+            openUntilNanos = System.nanoTime() + NOT_OPEN_NANOS;
+            return State.HALF_OPEN;
+        }
+        return null;
+    }
+
+    private void onSuccess(State started) {
+        if (started == State.HALF_OPEN) {
+            consecutiveFailures.set(0);
+            if (state.compareAndSet(State.HALF_OPEN.ordinal(), State.CLOSED.ordinal())) {
+                logger.info("Riemann circuit breaker of {} closed", name);
+            }
+        } else if (state.get() == State.CLOSED.ordinal()) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    private void onFailure(State started) {
+        if (started == State.HALF_OPEN) {
+            open(State.HALF_OPEN);
+        } else if (state.get() == State.CLOSED.ordinal() && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open(State.CLOSED);
+        }
+    }
+
+    private void open(State from) {
+        if (state.compareAndSet(from.ordinal(), State.OPEN.ordinal())) {
+            openUntilNanos = System.nanoTime() + openNanos;
+            consecutiveFailures.set(0);
+            opened.incrementAndGet();
+            if (from == State.CLOSED) {
+                logger.warn("Riemann circuit breaker of {} opened after {} failed or slow sends", name, failureThreshold);
+            }
+        }
+    }
+
+    /**
+     * @return false while the circuit is open and not yet due for a probe.
+     */
+    @Override
+    public boolean isConnected() {
+        final int current = state.get();
+        if (current == State.HALF_OPEN.ordinal()
+                || (current == State.OPEN.ordinal() && System.nanoTime() - openUntilNanos < 0)) {
+            return false;
+        }
+        return transport.isConnected();
+    }
+
+    public State getState() {
+        return State.values()[state.get()];
+    }
+
+    public long getOpened() {
+        return opened.get();
+    }
+
+    public long getShedEvents() {
+        return shed.get();
+    }
+}
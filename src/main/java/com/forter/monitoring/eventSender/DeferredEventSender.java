@@ -0,0 +1,124 @@
+package com.forter.monitoring.eventSender;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Stands in for a riemann event sender that isn't ready yet - e.g. while riemann is being discovered - so components
+ * can start without waiting for it. Events sent meanwhile are buffered, up to bufferSize (later ones are dropped),
+ * and sent once the delegate is set. The delegate may be replaced later, e.g. when riemann moves to other hosts.
+ * If no delegate will ever be set, discard() drops the buffered events and every later one.
+ */
+public class DeferredEventSender implements EventSender {
+    private final int bufferSize;
+    private final Object lock = new Object();
+    // Guarded by lock, null once a delegate is set or discarding
+    private List<RiemannEvent> buffered = Lists.newArrayList();
+    private volatile boolean discarding;
+    private volatile EventSender delegate;
+    private volatile Map<String, String> staticAttributes;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public DeferredEventSender(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void send(RiemannEvent event) {
+        EventSender sender = delegate;
+        if (sender == null) {
+            if (discarding) {
+                dropped.incrementAndGet();
+                return;
+            }
+            synchronized (lock) {
+                sender = delegate;
+                if (sender == null) {
+                    if (buffered != null && buffered.size() < bufferSize) {
+                        buffered.add(event);
+                    } else {
+                        dropped.incrementAndGet();
+                    }
+                    return;
+                }
+            }
+        }
+        sender.send(event);
+    }
+
+    /**
+     * Sends the buffered events, and from now on every event, through the sender.
+     * @return the previous delegate, or null if this is the first.
+     */
+    public EventSender setDelegate(EventSender sender) {
+        applyStaticAttributes(sender, staticAttributes);
+        final EventSender previous;
+        final List<RiemannEvent> pending;
+        synchronized (lock) {
+            previous = delegate;
+            pending = buffered;
+            buffered = null;
+            delegate = sender;
+        }
+        if (pending != null) {
+            for (RiemannEvent event : pending) {
+                sender.send(event);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Drops the buffered events, and every event sent until a delegate is set.
+     */
+    public void discard() {
+        synchronized (lock) {
+            if (delegate == null) {
+                discarding = true;
+                if (buffered != null) {
+                    dropped.addAndGet(buffered.size());
+                    buffered = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * See {@link RiemannEventSender#setStaticAttributes(Map)}. Kept for delegates set later.
+     */
+    public void setStaticAttributes(Map<String, String> attributes) {
+        this.staticAttributes = attributes;
+        applyStaticAttributes(delegate, attributes);
+    }
+
+    private static void applyStaticAttributes(EventSender sender, Map<String, String> attributes) {
+        if (attributes != null && sender instanceof RiemannEventSender) {
+            ((RiemannEventSender) sender).setStaticAttributes(attributes);
+        }
+    }
+
+    /**
+     * @return the sender events are sent through, or null while it isn't ready.
+     */
+    public EventSender getDelegate() {
+        return delegate;
+    }
+
+    public boolean isReady() {
+        return delegate != null;
+    }
+
+    public int getBuffered() {
+        synchronized (lock) {
+            return buffered == null ? 0 : buffered.size();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,120 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Interns the riemann fields that are the same for every event of a service - the machine prefixed service name, the
+ * constant "storm" tag and the worker's static attributes - in a prebuilt protobuf event per service.
+ * Events are sent by merging the prototype and serializing only their own fields on top of it.
+ * The static attributes are the topology's, added by its Monitors - events that don't carry all of them, e.g. of
+ * components sending through the event sender directly, get a prototype without them.
+ * The set of services of a worker is small (a few event kinds per component), so prototypes are never evicted; past
+ * MAX_PROTOTYPES services, events are built without a prototype.
+ */
+class EventPrototypes {
+    private static final int MAX_PROTOTYPES = 1024;
+
+    private final String machineName;
+    private final ConcurrentMap<String, Proto.Event> prototypes = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Proto.Event> plainPrototypes = Maps.newConcurrentMap();
+    private volatile Map<String, String> staticAttributes = ImmutableMap.of();
+
+    EventPrototypes(String machineName) {
+        this.machineName = machineName;
+    }
+
+    /**
+     * @param withStatic true if the event carries all the static attributes, see {@link #carriesStatic(Map)}.
+     * @return the prototype of the given service, or null if it can't be cached.
+     */
+    Proto.Event get(String service, boolean withStatic) {
+        if (service == null) {
+            return null;
+        }
+        final ConcurrentMap<String, Proto.Event> cache = withStatic ? prototypes : plainPrototypes;
+        Proto.Event prototype = cache.get(service);
+        if (prototype == null && cache.size() < MAX_PROTOTYPES) {
+            prototype = build(service, withStatic);
+            Proto.Event existing = cache.putIfAbsent(service, prototype);
+            if (existing != null) {
+                prototype = existing;
+            }
+        }
+        return prototype;
+    }
+
+    private Proto.Event build(String service, boolean withStatic) {
+        Proto.Event.Builder builder = Proto.Event.newBuilder()
+                .setService(machineName + " " + service)
+                .addTags("storm");
+        if (!withStatic) {
+            return builder.build();
+        }
+        for (Map.Entry<String, String> attribute : staticAttributes.entrySet()) {
+            builder.addAttributes(Proto.Attribute.newBuilder()
+                    .setKey(attribute.getKey())
+                    .setValue(attribute.getValue())
+                    .build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return true if the attribute is already part of the prototypes with static attributes.
+     */
+    boolean isStatic(String key, String value) {
+        return value != null && value.equals(staticAttributes.get(key));
+    }
+
+    /**
+     * @return true if the event's attributes include all the static attributes.
+     */
+    boolean carriesStatic(Map<String, String> attributes) {
+        final Map<String, String> statics = staticAttributes;
+        if (statics.isEmpty()) {
+            return true;
+        }
+        if (attributes == null) {
+            return false;
+        }
+        for (Map.Entry<String, String> attribute : statics.entrySet()) {
+            if (!attribute.getValue().equals(attributes.get(attribute.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the slot's attributes include all the static attributes.
+     */
+    boolean carriesStatic(String[] keys, String[] values, int count) {
+        for (Map.Entry<String, String> attribute : staticAttributes.entrySet()) {
+            boolean carried = false;
+            for (int i = 0; i < count && !carried; i++) {
+                carried = attribute.getKey().equals(keys[i]) && attribute.getValue().equals(values[i]);
+            }
+            if (!carried) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the attributes added to every prototype, rebuilding the prototypes if they changed.
+     */
+    synchronized void setStaticAttributes(Map<String, String> attributes) {
+        if (staticAttributes.equals(attributes)) {
+            return;
+        }
+        staticAttributes = ImmutableMap.copyOf(attributes);
+        prototypes.clear();
+        plainPrototypes.clear();
+    }
+}
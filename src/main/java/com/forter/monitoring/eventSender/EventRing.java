@@ -0,0 +1,96 @@
+package com.forter.monitoring.eventSender;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A preallocated ring of reusable event slots, written by many producers and read by a single consumer.
+ * A producer claims the next free sequence with a CAS, fills its slot alone and publishes it - or aborts it, if it
+ * fails to fill it. The consumer handles published slots in sequence order and frees them for reuse by advancing its
+ * own sequence, so a claimed slot must always be published or aborted, or the consumer stops at it.
+ * When the ring is full claim() returns null rather than waiting, so producers never block on the consumer.
+ */
+public class EventRing {
+    public interface SlotHandler {
+        /**
+         * Aborted slots are handed to the handler as well, so a batch still ends on them - see
+         * {@link EventSlot#isAborted()}.
+         * @param endOfBatch true if no further published slot is currently available.
+         */
+        void onSlot(EventSlot slot, boolean endOfBatch);
+    }
+
+    private final EventSlot[] slots;
+    private final int mask;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    public EventRing(int size) {
+        int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1));
+        this.slots = new EventSlot[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new EventSlot();
+            slots[i].reset();
+            published.set(i, -1);
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return an empty slot to fill and publish, or null if the ring is full.
+     */
+    public EventSlot claim() {
+        long sequence;
+        do {
+            sequence = claimed.get() + 1;
+            if (sequence - consumed.get() > slots.length) {
+                return null;
+            }
+        } while (!claimed.compareAndSet(sequence - 1, sequence));
+
+        EventSlot slot = slots[(int) sequence & mask];
+        slot.reset();
+        slot.sequence = sequence;
+        return slot;
+    }
+
+    public void publish(EventSlot slot) {
+        published.lazySet((int) slot.sequence & mask, slot.sequence);
+    }
+
+    /**
+     * Publishes a claimed slot as empty, e.g. when filling it failed, so the consumer moves on past it.
+     */
+    public void abort(EventSlot slot) {
+        slot.reset();
+        slot.aborted = true;
+        publish(slot);
+    }
+
+    /**
+     * Hands up to max published slots, in order, to the handler and frees them.
+     * @return the number of slots handled.
+     */
+    public int consume(SlotHandler handler, int max) {
+        long next = consumed.get() + 1;
+        int handled = 0;
+        while (handled < max && published.get((int) next & mask) == next) {
+            boolean endOfBatch = handled + 1 == max || published.get((int) (next + 1) & mask) != next + 1;
+            handler.onSlot(slots[(int) next & mask], endOfBatch);
+            consumed.lazySet(next);
+            next++;
+            handled++;
+        }
+        return handled;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public long getPending() {
+        return claimed.get() - consumed.get();
+    }
+}
@@ -0,0 +1,138 @@
+package com.forter.monitoring.eventSender;
+
+import com.forter.monitoring.events.RiemannEvent;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/*
+ * A mutable, reusable event of an EventRing. Tags and attributes are kept in flat arrays which only grow the first
+ * time an event has more of them than any event before, so filling a slot in steady state allocates nothing.
+ * A slot may only be written by the thread that claimed it, and only until it is published.
+ */
+public class EventSlot {
+    String host;
+    String description;
+    String service;
+    String state;
+    double metric;
+    float ttl;
+    long time;
+    // Decides the transport the event is sent over
+    Class<?> eventClass = RiemannEvent.class;
+
+    String[] tags = new String[8];
+    int tagCount;
+    String[] attributeKeys = new String[16];
+    String[] attributeValues = new String[16];
+    int attributeCount;
+
+    long sequence;
+    boolean aborted;
+
+    void reset() {
+        aborted = false;
+        host = null;
+        description = null;
+        service = null;
+        state = null;
+        metric = 0;
+        ttl = Float.NaN;
+        time = 0;
+        eventClass = RiemannEvent.class;
+        Arrays.fill(tags, 0, tagCount, null);
+        tagCount = 0;
+        Arrays.fill(attributeKeys, 0, attributeCount, null);
+        Arrays.fill(attributeValues, 0, attributeCount, null);
+        attributeCount = 0;
+    }
+
+    public EventSlot host(String host) {
+        this.host = host;
+        return this;
+    }
+
+    public EventSlot description(String description) {
+        this.description = description;
+        return this;
+    }
+
+    public EventSlot service(String service) {
+        this.service = service;
+        return this;
+    }
+
+    public EventSlot state(String state) {
+        this.state = state;
+        return this;
+    }
+
+    public EventSlot metric(double metric) {
+        this.metric = metric;
+        return this;
+    }
+
+    public EventSlot ttl(float ttl) {
+        this.ttl = ttl;
+        return this;
+    }
+
+    /**
+     * Sends the slot over the transport of the given event class, rather than that of plain RiemannEvents.
+     */
+    public EventSlot eventClass(Class<? extends RiemannEvent> eventClass) {
+        this.eventClass = eventClass;
+        return this;
+    }
+
+    public EventSlot tag(String tag) {
+        if (tagCount == tags.length) {
+            tags = Arrays.copyOf(tags, tags.length * 2);
+        }
+        tags[tagCount++] = tag;
+        return this;
+    }
+
+    public EventSlot attribute(String key, String value) {
+        if (attributeCount == attributeKeys.length) {
+            attributeKeys = Arrays.copyOf(attributeKeys, attributeKeys.length * 2);
+            attributeValues = Arrays.copyOf(attributeValues, attributeValues.length * 2);
+        }
+        attributeKeys[attributeCount] = key;
+        attributeValues[attributeCount] = value;
+        attributeCount++;
+        return this;
+    }
+
+    /**
+     * @return true if the producer aborted the slot instead of filling it - it holds no event.
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Fills the slot from a RiemannEvent, without copying its tags and attributes into intermediate collections.
+     */
+    EventSlot copyOf(RiemannEvent event) {
+        host = event.host;
+        description = event.description;
+        service = event.service;
+        state = event.state;
+        metric = event.metric;
+        if (event.ttl != null) {
+            ttl = event.ttl;
+        }
+        time = event.time;
+        eventClass = event.getClass();
+        for (String tag : event.tags) {
+            tag(tag);
+        }
+        if (event.customAttributes != null) {
+            for (Map.Entry<String, String> attribute : event.customAttributes.entrySet()) {
+                attribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+        return this;
+    }
+}
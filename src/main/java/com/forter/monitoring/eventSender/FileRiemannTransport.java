@@ -0,0 +1,44 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/*
+ * Appends events to a local file instead of sending them, e.g. for local runs without a riemann server.
+ * Each batch is written as a riemann message framed the way riemann's TCP protocol frames it - a 4 byte big endian
+ * length followed by the message - so the file can later be replayed to a riemann server as is.
+ */
+public class FileRiemannTransport implements RiemannTransport, Closeable {
+    private final DataOutputStream out;
+
+    public FileRiemannTransport(Path path) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+    }
+
+    @Override
+    public synchronized void send(List<Proto.Event> events) throws IOException {
+        byte[] message = Proto.Msg.newBuilder().addAllEvents(events).build().toByteArray();
+        out.writeInt(message.length);
+        out.write(message);
+        out.flush();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,31 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Thrown by a transport that delivered only some of the events of a send, e.g. a sharded transport one of whose
+ * endpoints failed - so that only the events left unsent are retried or spilled, and the delivered ones aren't sent
+ * twice.
+ */
+public class PartialSendException extends IOException {
+    private final List<Proto.Event> unsent;
+
+    public PartialSendException(List<Proto.Event> unsent, IOException cause) {
+        super(unsent.size() + " events were not sent", cause);
+        this.unsent = unsent;
+    }
+
+    public List<Proto.Event> getUnsent() {
+        return unsent;
+    }
+
+    /**
+     * @return the events of a failed send that weren't sent - all of them, unless the failure says otherwise.
+     */
+    static List<Proto.Event> unsentOf(IOException failure, List<Proto.Event> events) {
+        return failure instanceof PartialSendException ? ((PartialSendException) failure).getUnsent() : events;
+    }
+}
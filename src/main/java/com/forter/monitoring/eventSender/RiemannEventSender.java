@@ -1,28 +1,66 @@
 package com.forter.monitoring.eventSender;
 
+import com.aphyr.riemann.Proto;
 import com.aphyr.riemann.client.EventDSL;
 import com.aphyr.riemann.client.RiemannClient;
+import com.forter.monitoring.DefaultLatencyMonitorEventCreator;
+import com.forter.monitoring.events.ExceptionEvent;
 import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.MonitoringOverhead;
 import com.forter.monitoring.utils.RiemannConnection;
 import com.forter.monitoring.utils.RiemannDiscovery;
+import com.forter.monitoring.utils.SpillBuffer;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RiemannEventSender implements EventSender {
     private final RiemannConnection connection;
     private final String machineName;
+    private final EventPrototypes prototypes;
+    private final RiemannTransports transports;
+    private final MonitoringOverhead overhead = MonitoringOverhead.getInstance();
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     // A temporary field for the v0.8.6.1 fix. will be removed later.
     private final float DEFAULT_TTL_SEC = 5f;
 
+    private static final long DRAIN_INTERVAL_MILLIS = 100;
+    private static final long FAILURE_LOG_INTERVAL_MILLIS = 10000;
+    // How long close() waits for a sending thread before giving up on it, so a send stuck on the network never hangs
+    // the caller - e.g. EventSenderSingleton replacing the sender under its lock
+    protected static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private volatile SpillBuffer spillBuffer;
+    private int drainRatePerSecond;
+    private ScheduledExecutorService drainer;
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong spillDropped = new AtomicLong();
+    private final AtomicLong drained = new AtomicLong();
+    private final AtomicLong lastFailureLogMillis = new AtomicLong();
+    private final AtomicLong unloggedFailures = new AtomicLong();
+    private final List<CircuitBreakerTransport> breakers = new CopyOnWriteArrayList<>();
+
     public RiemannEventSender(RiemannConnection riemannConnection) {
         this.machineName = retrieveMachineName();
+        this.prototypes = new EventPrototypes(machineName);
         this.connection = riemannConnection;
+        this.transports = new RiemannTransports(new TcpRiemannTransport(riemannConnection));
     }
 
     protected String retrieveMachineName() {
@@ -41,32 +79,319 @@ public class RiemannEventSender implements EventSender {
         return connection.getClient().event();
     }
 
-    @Override
-    public void send(RiemannEvent event) {
-        try {
-            EventDSL eventDSL = createEvent()
-                .description(event.description)
-                .service(machineName + " " + event.service)
-                .state(event.state)
-                .time(System.currentTimeMillis() / 1000L)
-                .metric(event.metric)
-                .ttl(event.ttl == null ? DEFAULT_TTL_SEC : event.ttl)
-                .tag("storm")
-                .tags(event.listOfTags())
-                .attributes(event.customAttributes);
+    /**
+     * Builds the riemann event for the given event, as sent by {@link #send(RiemannEvent)}.
+     * The service, "storm" tag and static attributes (if the event carries them) come from the service's prototype,
+     * so only the event's own fields are encoded per event.
+     */
+    protected EventDSL toEventDSL(RiemannEvent event) {
+        final boolean withStatic = prototypes.carriesStatic(event.customAttributes);
+        Proto.Event prototype = prototypes.get(event.service, withStatic);
+        EventDSL eventDSL = fromPrototype(prototype, event.service)
+            .description(event.description)
+            .state(event.state)
+            .time(System.currentTimeMillis() / 1000L)
+            .metric(event.metric)
+            .ttl(event.ttl == null ? DEFAULT_TTL_SEC : event.ttl);
 
-            //To avoid 127.0.0.1 appearing as event host
-            if (event.host != null) {
-                eventDSL.host(event.host);
+        for (String tag : event.tags) {
+            eventDSL.tag(tag);
+        }
+        if (event.customAttributes != null) {
+            for (Map.Entry<String, String> attribute : event.customAttributes.entrySet()) {
+                if (prototype == null || !withStatic || !prototypes.isStatic(attribute.getKey(), attribute.getValue())) {
+                    eventDSL.attribute(attribute.getKey(), attribute.getValue());
+                }
             }
+        }
+
+        //To avoid 127.0.0.1 appearing as event host
+        if (event.host != null) {
+            eventDSL.host(event.host);
+        }
+
+        return eventDSL;
+    }
 
-            eventDSL.send();
+    /**
+     * Builds the riemann event for the given ring slot, the same way {@link #toEventDSL(RiemannEvent)} does.
+     */
+    protected EventDSL toEventDSL(EventSlot slot) {
+        final boolean withStatic = prototypes.carriesStatic(slot.attributeKeys, slot.attributeValues, slot.attributeCount);
+        Proto.Event prototype = prototypes.get(slot.service, withStatic);
+        EventDSL eventDSL = fromPrototype(prototype, slot.service)
+            .description(slot.description)
+            .state(slot.state)
+            .time(slot.time)
+            .metric(slot.metric)
+            .ttl(Float.isNaN(slot.ttl) ? DEFAULT_TTL_SEC : slot.ttl);
+
+        for (int i = 0; i < slot.tagCount; i++) {
+            eventDSL.tag(slot.tags[i]);
+        }
+        for (int i = 0; i < slot.attributeCount; i++) {
+            if (prototype == null || !withStatic || !prototypes.isStatic(slot.attributeKeys[i], slot.attributeValues[i])) {
+                eventDSL.attribute(slot.attributeKeys[i], slot.attributeValues[i]);
+            }
+        }
+
+        //To avoid 127.0.0.1 appearing as event host
+        if (slot.host != null) {
+            eventDSL.host(slot.host);
+        }
+
+        return eventDSL;
+    }
+
+    private EventDSL fromPrototype(Proto.Event prototype, String service) {
+        EventDSL eventDSL = createEvent();
+        if (prototype != null) {
+            eventDSL.builder.mergeFrom(prototype);
+            return eventDSL;
+        }
+        return eventDSL.service(machineName + " " + service).tag("storm");
+    }
+
+    /**
+     * Sets the attributes every monitored event of this worker carries (the topology's riemann attributes), so that
+     * they are encoded once per service instead of once per event. Events without them are sent without them.
+     */
+    public void setStaticAttributes(Map<String, String> attributes) {
+        prototypes.setStaticAttributes(attributes);
+    }
+
+    /**
+     * Sends the events of the given class, and of its subclasses without a transport of their own, over the transport.
+     * Events of classes without a transport are sent over riemann's TCP connection.
+     */
+    public void setTransport(Class<? extends RiemannEvent> eventClass, RiemannTransport transport) {
+        transports.set(eventClass, transport);
+    }
+
+    @Override
+    public void send(RiemannEvent event) {
+        try {
+            sendEvents(transports.get(event.getClass()), Collections.singletonList(toEventDSL(event).build()));
 
             if (logger.isDebugEnabled()) {
                 logger.debug("Event sent - {}", event);
             }
         } catch (Throwable t) {
-            logger.warn("Riemann error during event (" + event.description + ") send attempt: ", t);
+            logSendFailure("event (" + event.description + ") send attempt", t);
+        }
+    }
+
+    /**
+     * Logs a failed send at most once per FAILURE_LOG_INTERVAL_MILLIS, with the number of failures since the previous
+     * one logged - so a riemann outage doesn't flood the log. Sends shed by an open circuit breaker are not logged.
+     */
+    protected void logSendFailure(String attempt, Throwable t) {
+        if (t instanceof CircuitBreakerTransport.OpenException) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long lastLogged = lastFailureLogMillis.get();
+        if (now - lastLogged < FAILURE_LOG_INTERVAL_MILLIS || !lastFailureLogMillis.compareAndSet(lastLogged, now)) {
+            unloggedFailures.incrementAndGet();
+            return;
+        }
+        final long unlogged = unloggedFailures.getAndSet(0);
+        logger.warn("Riemann error during " + attempt
+                + (unlogged > 0 ? " (" + unlogged + " more failures since the last one logged)" : "") + ": ", t);
+    }
+
+    /**
+     * @return true for the events sent ahead of routine events when the sender can't keep up - exceptions, including
+     * unrecognized latency keys.
+     */
+    protected static boolean isPriority(RiemannEvent event) {
+        return event instanceof ExceptionEvent || event.tags.contains(DefaultLatencyMonitorEventCreator.MISSING_KEY_TAG);
+    }
+
+    /**
+     * Sends the events over the default transport, see {@link #sendEvents(RiemannTransport, List)}.
+     */
+    protected void sendEvents(List<Proto.Event> events) throws IOException {
+        sendEvents(transports.getDefault(), events);
+    }
+
+    /**
+     * Sends each event over the transport of its event class - eventClasses.get(i) is the class of events.get(i).
+     */
+    protected void sendEvents(List<Proto.Event> events, List<Class<?>> eventClasses) throws IOException {
+        if (transports.isDefaultOnly()) {
+            sendEvents(transports.getDefault(), events);
+            return;
+        }
+
+        Map<RiemannTransport, List<Proto.Event>> eventsPerTransport = new IdentityHashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            RiemannTransport transport = transports.get(eventClasses.get(i));
+            List<Proto.Event> transportEvents = eventsPerTransport.get(transport);
+            if (transportEvents == null) {
+                transportEvents = Lists.newArrayList();
+                eventsPerTransport.put(transport, transportEvents);
+            }
+            transportEvents.add(events.get(i));
+        }
+
+        // A failing transport doesn't keep the events of the other transports from being sent
+        IOException failure = null;
+        List<Proto.Event> unsent = Lists.newArrayList();
+        for (Map.Entry<RiemannTransport, List<Proto.Event>> transportEvents : eventsPerTransport.entrySet()) {
+            try {
+                sendEvents(transportEvents.getKey(), transportEvents.getValue());
+            } catch (IOException e) {
+                failure = e;
+                unsent.addAll(PartialSendException.unsentOf(e, transportEvents.getValue()));
+            }
+        }
+        if (failure != null) {
+            throw unsent.size() == events.size() ? failure : new PartialSendException(unsent, failure);
+        }
+    }
+
+    /**
+     * Sends the events in as few messages as the transport allows, or spills them to disk if spilling is enabled and
+     * the transport is disconnected. If the send fails, only the events the transport didn't send are spilled.
+     */
+    protected void sendEvents(RiemannTransport transport, List<Proto.Event> events) throws IOException {
+        if (spillBuffer != null && !transport.isConnected()) {
+            spill(events);
+            return;
+        }
+        try {
+            send(transport, events);
+        } catch (IOException e) {
+            if (spillBuffer == null) {
+                throw e;
+            }
+            spill(PartialSendException.unsentOf(e, events));
+        }
+    }
+
+    /**
+     * @return the number of events of a send of the given size that the failure left unsent.
+     */
+    protected static int unsentCount(Throwable failure, int attempted) {
+        return failure instanceof PartialSendException ? ((PartialSendException) failure).getUnsent().size() : attempted;
+    }
+
+    /**
+     * Sends over the transport, recording the send time, events and encoded bytes as the monitoring's overhead.
+     */
+    private void send(RiemannTransport transport, List<Proto.Event> events) throws IOException {
+        final long start = overhead.send.start();
+        try {
+            transport.send(events);
+        } finally {
+            overhead.send.stop(start);
+        }
+        // The serialized sizes are memoized by protobuf when encoding, so summing them costs no encoding
+        long bytes = 0;
+        for (Proto.Event event : events) {
+            bytes += event.getSerializedSize();
+        }
+        overhead.recordEventsSent(events.size(), bytes);
+    }
+
+    private void spill(List<Proto.Event> events) {
+        for (Proto.Event event : events) {
+            spill(event);
+        }
+    }
+
+    private void spill(Proto.Event event) {
+        if (spillBuffer.append(event.toByteArray())) {
+            spilled.incrementAndGet();
+        } else {
+            spillDropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * While riemann is unreachable, events are appended to the spill buffer instead of being lost. Once reconnected
+     * they are drained in the background at up to drainRatePerSecond events per second, through the same transports
+     * as live events. The spill buffer may outlive the sender - e.g. be handed to the sender replacing it - but the
+     * drainer is the sender's own, stopped by {@link #close()}.
+     */
+    public synchronized void enableSpill(SpillBuffer spillBuffer, int drainRatePerSecond) {
+        if (this.spillBuffer != null) {
+            throw new IllegalStateException("Spill is already enabled");
+        }
+        this.drainRatePerSecond = drainRatePerSecond;
+        this.spillBuffer = spillBuffer;
+
+        drainer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("riemann-spill-drainer").build());
+        drainer.scheduleWithFixedDelay(
+                new Runnable() {
+                    private byte[] scratch = new byte[4096];
+
+                    @Override
+                    public void run() {
+                        try {
+                            scratch = drainSpill(scratch);
+                        } catch (Throwable t) {
+                            logger.warn("Riemann error during spill drain attempt: ", t);
+                        }
+                    }
+                },
+                DRAIN_INTERVAL_MILLIS,
+                DRAIN_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private byte[] drainSpill(byte[] scratch) throws IOException {
+        // Spilled events lost their class, they go over the default transport like most events
+        final RiemannTransport transport = transports.getDefault();
+        if (spillBuffer.getRecords() == 0 || !transport.isConnected()) {
+            return scratch;
+        }
+
+        int budget = (int) Math.max(1, drainRatePerSecond * DRAIN_INTERVAL_MILLIS / 1000);
+        List<Proto.Event> batch = Lists.newArrayListWithCapacity(Math.min(budget, spillBuffer.getRecords()));
+
+        // Peek the records in order without removing them, so nothing is lost if the send fails
+        SpillBuffer.Cursor cursor = spillBuffer.cursor();
+        while (batch.size() < budget) {
+            int length = cursor.next(scratch);
+            if (length < 0) {
+                scratch = new byte[-length];
+                continue;
+            }
+            if (length == 0) {
+                break;
+            }
+            batch.add(Proto.Event.parseFrom(Arrays.copyOf(scratch, length)));
+        }
+
+        if (!batch.isEmpty()) {
+            try {
+                send(transport, batch);
+            } catch (PartialSendException e) {
+                // The delivered events mustn't be drained again - the rest go back to the end of the buffer
+                spillBuffer.remove(batch.size());
+                drained.addAndGet(batch.size() - e.getUnsent().size());
+                spill(e.getUnsent());
+                throw e;
+            }
+            spillBuffer.remove(batch.size());
+            drained.addAndGet(batch.size());
+        }
+        return scratch;
+    }
+
+    /**
+     * Stops draining the spill buffer, leaving what remains in it to the next sender opening it.
+     */
+    public synchronized void close() throws InterruptedException {
+        if (drainer != null) {
+            drainer.shutdown();
+            if (!drainer.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                drainer.shutdownNow();
+            }
+            drainer = null;
         }
     }
 
@@ -111,7 +436,59 @@ public class RiemannEventSender implements EventSender {
         }
     }
 
+    /**
+     * Includes the breaker - guarding one of the sender's transports - in the sender's shed and open breaker counts.
+     */
+    public void addCircuitBreaker(CircuitBreakerTransport breaker) {
+        breakers.add(breaker);
+    }
+
+    /**
+     * @return the events shed by the sender's open circuit breakers - spilled, moved to another host or lost.
+     */
+    public long getShedEvents() {
+        long shed = 0;
+        for (CircuitBreakerTransport breaker : breakers) {
+            shed += breaker.getShedEvents();
+        }
+        return shed;
+    }
+
+    public int getOpenBreakers() {
+        int open = 0;
+        for (CircuitBreakerTransport breaker : breakers) {
+            if (breaker.getState() != CircuitBreakerTransport.State.CLOSED) {
+                open++;
+            }
+        }
+        return open;
+    }
+
     public RiemannClient getRiemannClient() {
         return connection.getClient();
     }
+
+    public long getSpilledEvents() {
+        return spilled.get();
+    }
+
+    public long getSpillDroppedEvents() {
+        return spillDropped.get();
+    }
+
+    public long getDrainedEvents() {
+        return drained.get();
+    }
+
+    public int getDrainRatePerSecond() {
+        return drainRatePerSecond;
+    }
+
+    public int getSpillCapacityBytes() {
+        return spillBuffer == null ? 0 : spillBuffer.getCapacityBytes();
+    }
+
+    public int getSpillUsedBytes() {
+        return spillBuffer == null ? 0 : spillBuffer.getUsedBytes();
+    }
 }
@@ -0,0 +1,22 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * The way encoded events leave the worker. A RiemannEventSender sends each event class over its configured transport,
+ * so reliable events such as exceptions can keep using TCP while high rate metrics use cheaper transports.
+ */
+public interface RiemannTransport {
+    /**
+     * Sends the events, in as few messages as the transport allows.
+     */
+    void send(List<Proto.Event> events) throws IOException;
+
+    /**
+     * @return false if events sent now would be lost, e.g. while reconnecting.
+     */
+    boolean isConnected();
+}
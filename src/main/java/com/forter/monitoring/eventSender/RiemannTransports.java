@@ -0,0 +1,60 @@
+package com.forter.monitoring.eventSender;
+
+import com.forter.monitoring.events.RiemannEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The transport of each event class. An event class without a transport of its own uses the transport of its closest
+ * superclass that has one, or the default transport. Lookups are cached per concrete class.
+ * Setting the transport of RiemannEvent itself replaces the default transport.
+ */
+public class RiemannTransports {
+    private volatile RiemannTransport defaultTransport;
+    private final Map<Class<?>, RiemannTransport> transportPerClass = new ConcurrentHashMap<>();
+    private final Map<Class<?>, RiemannTransport> resolved = new ConcurrentHashMap<>();
+
+    public RiemannTransports(RiemannTransport defaultTransport) {
+        this.defaultTransport = defaultTransport;
+    }
+
+    public void set(Class<? extends RiemannEvent> eventClass, RiemannTransport transport) {
+        if (eventClass == RiemannEvent.class) {
+            defaultTransport = transport;
+        } else {
+            transportPerClass.put(eventClass, transport);
+        }
+        resolved.clear();
+    }
+
+    public RiemannTransport get(Class<?> eventClass) {
+        RiemannTransport transport = resolved.get(eventClass);
+        if (transport == null) {
+            transport = resolve(eventClass);
+            resolved.put(eventClass, transport);
+        }
+        return transport;
+    }
+
+    private RiemannTransport resolve(Class<?> eventClass) {
+        for (Class<?> c = eventClass; c != null; c = c.getSuperclass()) {
+            RiemannTransport transport = transportPerClass.get(c);
+            if (transport != null) {
+                return transport;
+            }
+        }
+        return defaultTransport;
+    }
+
+    public RiemannTransport getDefault() {
+        return defaultTransport;
+    }
+
+    /**
+     * @return true if every event class uses the default transport.
+     */
+    public boolean isDefaultOnly() {
+        return transportPerClass.isEmpty();
+    }
+}
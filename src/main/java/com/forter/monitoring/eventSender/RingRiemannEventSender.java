@@ -0,0 +1,204 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.RiemannConnection;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A riemann event sender backed by a preallocated EventRing.
+ * Producers either claim a slot, fill it and publish it (or abort it) - which allocates no event - or send a
+ * RiemannEvent, which is copied into a slot. The monitors fill slots for the default creator's per tuple latency
+ * events; their other events are sent as RiemannEvents, for which the ring replaces the async sender's queue: a
+ * bounded, preallocated buffer without a queue node per event or a lock, whose consumer encodes events in batches off
+ * the producer's thread.
+ * A single consumer thread encodes the published slots, sends them in multi-event riemann messages of up to batchSize
+ * events and recycles the slots.
+ * When the ring is full events are dropped rather than blocking the producer.
+ * Priority events sent as RiemannEvents (exceptions and unrecognized latency keys) go to a smaller ring of their own,
+ * which the consumer always drains first, so a full ring of routine events neither drops nor delays them.
+ */
+public class RingRiemannEventSender extends RiemannEventSender {
+    private static final Logger logger = LoggerFactory.getLogger(RingRiemannEventSender.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MIN_PRIORITY_RING_SIZE = 64;
+
+    private final EventRing ring;
+    private final EventRing priorityRing;
+    private final int batchSize;
+    private final Thread consumer;
+    private volatile boolean running;
+    // Set when close() gave up on the consumer, which then stops without sending what is left
+    private volatile boolean stopped;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public RingRiemannEventSender(RiemannConnection riemannConnection, int ringSize, int batchSize) {
+        super(riemannConnection);
+        this.ring = new EventRing(ringSize);
+        this.priorityRing = new EventRing(Math.max(MIN_PRIORITY_RING_SIZE, ringSize / 8));
+        this.batchSize = batchSize;
+        this.running = true;
+
+        this.consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consumeLoop();
+            }
+        }, "riemann-ring-sender");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * @return a slot to fill and pass to {@link #publish(EventSlot)} - or to {@link #abort(EventSlot)} if filling it
+     * fails - or null if the ring is full and the event should be dropped.
+     */
+    public EventSlot claim() {
+        return claim(ring);
+    }
+
+    private EventSlot claim(EventRing ring) {
+        EventSlot slot = ring.claim();
+        if (slot == null) {
+            dropped.incrementAndGet();
+            return null;
+        }
+        // Keep the time the event was produced, not the time it is sent
+        slot.time = System.currentTimeMillis() / 1000L;
+        return slot;
+    }
+
+    public void publish(EventSlot slot) {
+        publish(ring, slot);
+    }
+
+    private void publish(EventRing ring, EventSlot slot) {
+        ring.publish(slot);
+        published.incrementAndGet();
+    }
+
+    /**
+     * Gives up a claimed slot without sending it.
+     */
+    public void abort(EventSlot slot) {
+        ring.abort(slot);
+        dropped.incrementAndGet();
+    }
+
+    @Override
+    public void send(RiemannEvent event) {
+        EventRing target = isPriority(event) ? priorityRing : ring;
+        EventSlot slot = claim(target);
+        if (slot != null) {
+            long time = slot.time;
+            try {
+                slot.copyOf(event);
+            } catch (RuntimeException e) {
+                // e.g. the event's attributes modified concurrently - the slot mustn't block the ring
+                target.abort(slot);
+                dropped.incrementAndGet();
+                throw e;
+            }
+            slot.time = time;
+            publish(target, slot);
+        }
+    }
+
+    private void consumeLoop() {
+        final List<Proto.Event> batch = Lists.newArrayListWithCapacity(batchSize);
+        final List<Class<?>> batchClasses = Lists.newArrayListWithCapacity(batchSize);
+        EventRing.SlotHandler handler = new EventRing.SlotHandler() {
+            @Override
+            public void onSlot(EventSlot slot, boolean endOfBatch) {
+                if (!slot.isAborted()) {
+                    try {
+                        batch.add(toEventDSL(slot).build());
+                        batchClasses.add(slot.eventClass);
+                    } catch (Throwable t) {
+                        failed.incrementAndGet();
+                        logger.warn("Riemann error during event (" + slot.description + ") encoding: ", t);
+                    }
+                }
+                if (endOfBatch) {
+                    sendBatch(batch, batchClasses);
+                }
+            }
+        };
+
+        while (!stopped && (running || getPending() > 0)) {
+            int consumed = priorityRing.consume(handler, batchSize);
+            consumed += ring.consume(handler, batchSize);
+            if (consumed == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void sendBatch(List<Proto.Event> batch, List<Class<?>> batchClasses) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sendEvents(batch, batchClasses);
+            sent.addAndGet(batch.size());
+        } catch (Throwable t) {
+            failed.addAndGet(unsentCount(t, batch.size()));
+            logSendFailure("batch send attempt of " + batch.size() + " events", t);
+        } finally {
+            batch.clear();
+            batchClasses.clear();
+        }
+    }
+
+    /**
+     * Stops the consumer after sending the events already published - or, if that takes over CLOSE_TIMEOUT_MILLIS,
+     * interrupts it and drops them.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        consumer.join(CLOSE_TIMEOUT_MILLIS);
+        if (consumer.isAlive()) {
+            logger.warn("Riemann ring sender didn't finish sending within {}ms, dropping {} published events",
+                    CLOSE_TIMEOUT_MILLIS, getPending());
+            stopped = true;
+            consumer.interrupt();
+        }
+        super.close();
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getPending() {
+        return ring.getPending() + priorityRing.getPending();
+    }
+
+    public int getCapacity() {
+        return ring.getCapacity();
+    }
+}
@@ -0,0 +1,272 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.LatencyHistogram;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Spreads events over several riemann servers, routing each event by consistent hashing of its service so that all
+ * the events of a service - and the riemann streams indexing it - stay on one server.
+ * Every endpoint owns VIRTUAL_NODES points on the hash ring. An event goes to the owner of the first point at or after
+ * its service's hash, or, while that endpoint is unhealthy, to the next healthy endpoint on the ring - so only the
+ * unhealthy endpoint's share moves, and it moves back once the endpoint recovers.
+ * An endpoint is unhealthy while its transport is disconnected, and for retryMillis after a failed send, whose events
+ * are retried once on the next healthy endpoint. If that fails too, a PartialSendException carries just the events
+ * left unsent, as the other endpoints' events were delivered.
+ */
+public class ShardedRiemannTransport implements RiemannTransport {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedRiemannTransport.class);
+
+    public static final String ENDPOINT_TAG = "riemann-endpoint";
+    public static final String ENDPOINT_ATTR_ID = "riemannEndpoint";
+
+    private static final int VIRTUAL_NODES = 128;
+    private static final int MAX_CACHED_SERVICES = 4096;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Endpoint[] endpoints;
+    private final long[] ringPoints;
+    private final Endpoint[] ringOwners;
+    private final long retryNanos;
+    // Services are few and repeat, so their hashes are computed once
+    private final Map<String, Long> hashPerService = new ConcurrentHashMap<>();
+
+    public ShardedRiemannTransport(List<String> hosts, List<RiemannTransport> transports, long retryMillis) {
+        if (hosts.isEmpty() || hosts.size() != transports.size()) {
+            throw new IllegalArgumentException("Expected a transport per host, got " + hosts + " and " + transports.size() + " transports");
+        }
+        this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retryMillis);
+        this.endpoints = new Endpoint[hosts.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new Endpoint(hosts.get(i), transports.get(i));
+        }
+
+        // Sort the points of all the endpoints, keeping each point's owner alongside
+        long[][] points = new long[endpoints.length * VIRTUAL_NODES][];
+        for (int i = 0; i < endpoints.length; i++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                points[i * VIRTUAL_NODES + node] = new long[] {hash(endpoints[i].host + "#" + node), i};
+            }
+        }
+        Arrays.sort(points, (a, b) -> Long.compare(a[0], b[0]));
+        this.ringPoints = new long[points.length];
+        this.ringOwners = new Endpoint[points.length];
+        for (int i = 0; i < points.length; i++) {
+            ringPoints[i] = points[i][0];
+            ringOwners[i] = endpoints[(int) points[i][1]];
+        }
+    }
+
+    @Override
+    public void send(List<Proto.Event> events) throws IOException {
+        final long now = System.nanoTime();
+        Map<Endpoint, List<Proto.Event>> eventsPerEndpoint = new IdentityHashMap<>();
+        for (Proto.Event event : events) {
+            add(eventsPerEndpoint, route(event.getService(), null, now), event);
+        }
+
+        IOException failure = null;
+        List<Proto.Event> unsent = null;
+        for (Map.Entry<Endpoint, List<Proto.Event>> endpointEvents : eventsPerEndpoint.entrySet()) {
+            Endpoint endpoint = endpointEvents.getKey();
+            try {
+                endpoint.send(endpointEvents.getValue());
+            } catch (IOException e) {
+                endpoint.markDown(System.nanoTime() + retryNanos);
+                if (!(e instanceof CircuitBreakerTransport.OpenException)) {
+                    logger.warn("Riemann endpoint " + endpoint.host + " failed, moving its events to the other endpoints: ", e);
+                }
+                try {
+                    resend(endpoint, endpointEvents.getValue());
+                } catch (IOException resendFailure) {
+                    failure = resendFailure;
+                    if (unsent == null) {
+                        unsent = Lists.newArrayList();
+                    }
+                    unsent.addAll(PartialSendException.unsentOf(resendFailure, endpointEvents.getValue()));
+                }
+            }
+        }
+        if (failure != null) {
+            throw unsent.size() == events.size() ? failure : new PartialSendException(unsent, failure);
+        }
+    }
+
+    private void resend(Endpoint failed, List<Proto.Event> events) throws IOException {
+        final long now = System.nanoTime();
+        Map<Endpoint, List<Proto.Event>> eventsPerEndpoint = new IdentityHashMap<>();
+        for (Proto.Event event : events) {
+            Endpoint endpoint = route(event.getService(), failed, now);
+            if (endpoint == null) {
+                throw new IOException("No healthy riemann endpoint to move " + events.size() + " events to");
+            }
+            add(eventsPerEndpoint, endpoint, event);
+        }
+        IOException failure = null;
+        List<Proto.Event> unsent = Lists.newArrayList();
+        for (Map.Entry<Endpoint, List<Proto.Event>> endpointEvents : eventsPerEndpoint.entrySet()) {
+            try {
+                endpointEvents.getKey().send(endpointEvents.getValue());
+            } catch (IOException e) {
+                failure = e;
+                unsent.addAll(endpointEvents.getValue());
+            }
+        }
+        if (failure != null) {
+            throw unsent.size() == events.size() ? failure : new PartialSendException(unsent, failure);
+        }
+    }
+
+    private static void add(Map<Endpoint, List<Proto.Event>> eventsPerEndpoint, Endpoint endpoint, Proto.Event event) {
+        List<Proto.Event> endpointEvents = eventsPerEndpoint.get(endpoint);
+        if (endpointEvents == null) {
+            endpointEvents = Lists.newArrayList();
+            eventsPerEndpoint.put(endpoint, endpointEvents);
+        }
+        endpointEvents.add(event);
+    }
+
+    /**
+     * @return the first healthy endpoint on the ring from the service's hash, other than excluded. If none is healthy,
+     * the service's own endpoint - or null if that is excluded.
+     */
+    private Endpoint route(String service, Endpoint excluded, long now) {
+        int start = Arrays.binarySearch(ringPoints, serviceHash(service));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = 0; i < ringPoints.length; i++) {
+            Endpoint endpoint = ringOwners[(start + i) % ringPoints.length];
+            if (endpoint != excluded && endpoint.isHealthy(now)) {
+                return endpoint;
+            }
+        }
+        Endpoint owner = ringOwners[start % ringPoints.length];
+        return owner == excluded ? null : owner;
+    }
+
+    private long serviceHash(String service) {
+        if (service == null) {
+            service = "";
+        }
+        Long hash = hashPerService.get(service);
+        if (hash == null) {
+            hash = hash(service);
+            if (hashPerService.size() < MAX_CACHED_SERVICES) {
+                hashPerService.put(service, hash);
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(String value) {
+        return HASH.hashString(value, Charsets.UTF_8).asLong();
+    }
+
+    /**
+     * @return true while any endpoint is healthy.
+     */
+    @Override
+    public boolean isConnected() {
+        final long now = System.nanoTime();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy(now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return events with the sends in progress, send latencies, sent and failed counts and health of each endpoint since
+     * the previous flush.
+     */
+    public Iterable<RiemannEvent> flush() {
+        final long now = System.nanoTime();
+        List<RiemannEvent> events = Lists.newArrayList();
+        for (Endpoint endpoint : endpoints) {
+            LatencyHistogram.Snapshot snapshot = endpoint.sendMicros.snapshotAndReset();
+            boolean healthy = endpoint.isHealthy(now);
+            events.add(createEvent(endpoint, "in-flight-sends", endpoint.inFlightSends.get()));
+            events.add(createEvent(endpoint, "sent", endpoint.sent.getAndSet(0)));
+            events.add(createEvent(endpoint, "failed", endpoint.failed.getAndSet(0)));
+            events.add(createEvent(endpoint, "healthy", healthy ? 1 : 0).state(healthy ? "ok" : "critical"));
+            if (snapshot.getCount() > 0) {
+                for (RiemannEvent event : snapshot.toEvents(ENDPOINT_TAG + " send-latency", ENDPOINT_TAG)) {
+                    events.add(event.attribute(ENDPOINT_ATTR_ID, endpoint.host));
+                }
+            }
+        }
+        return events;
+    }
+
+    private static RiemannEvent createEvent(Endpoint endpoint, String statistic, double metric) {
+        return new RiemannEvent()
+                .metric(metric)
+                .service(ENDPOINT_TAG + " " + statistic)
+                .tags(ENDPOINT_TAG)
+                .attribute(ENDPOINT_ATTR_ID, endpoint.host);
+    }
+
+    private static class Endpoint {
+        private final String host;
+        private final RiemannTransport transport;
+        // Sends to the endpoint's transport in progress - batches are queued before the sharding, not per endpoint
+        private final AtomicLong inFlightSends = new AtomicLong();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final LatencyHistogram sendMicros = LatencyHistogram.ofMicros();
+        private volatile long downUntilNanos;
+        private volatile boolean down;
+
+        Endpoint(String host, RiemannTransport transport) {
+            this.host = host;
+            this.transport = transport;
+        }
+
+        void send(List<Proto.Event> events) throws IOException {
+            inFlightSends.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                transport.send(events);
+                sent.addAndGet(events.size());
+            } catch (IOException e) {
+                failed.addAndGet(events.size());
+                throw e;
+            } finally {
+                sendMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                inFlightSends.decrementAndGet();
+            }
+        }
+
+        void markDown(long untilNanos) {
+            downUntilNanos = untilNanos;
+            down = true;
+        }
+
+        boolean isHealthy(long now) {
+            if (down) {
+                if (now - downUntilNanos < 0) {
+                    return false;
+                }
+                down = false;
+            }
+            return transport.isConnected();
+        }
+    }
+}
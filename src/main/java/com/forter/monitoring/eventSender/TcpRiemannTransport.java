@@ -0,0 +1,28 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.forter.monitoring.utils.RiemannConnection;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Sends events over the riemann client's TCP connection, which reconnects in the background.
+ */
+public class TcpRiemannTransport implements RiemannTransport {
+    private final RiemannConnection connection;
+
+    public TcpRiemannTransport(RiemannConnection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public void send(List<Proto.Event> events) throws IOException {
+        connection.getClient().sendEvents(events);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connection.getClient().isConnected();
+    }
+}
@@ -2,6 +2,7 @@ package com.forter.monitoring.eventSender;
 
 import org.apache.storm.tuple.Tuple;
 import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.TupleAttributePlans;
 import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,19 +37,12 @@ public class TupleAwareEventSender implements EventSender {
     @Override
     public void send(RiemannEvent event) {
         if (currentTuple != null) {
-            HashMap<String, String> attributes = Maps.newHashMap();
-
-            for (String field : currentTuple.getFields()) {
-                if (field.startsWith("_")) {
-                    attributes.put(field.substring(1), String.valueOf(currentTuple.getValueByField(field)));
-                }
+            final TupleAttributePlans.Plan plan = TupleAttributePlans.getInstance().get(currentTuple);
+            for (int i = 0; i < plan.getAttributeCount(); i++) {
+                event.attribute(plan.getAttributeName(i), plan.getAttributeValue(currentTuple, i));
             }
 
             event.tuple(currentTuple);
-
-            if (!attributes.isEmpty()) {
-                event.attributes(attributes);
-            }
         }
 
         event.attributes(environmentAttributes);
@@ -59,4 +53,8 @@ public class TupleAwareEventSender implements EventSender {
     public void setCurrentTuple(Tuple currentTuple) {
         this.currentTuple = currentTuple;
     }
+
+    public EventSender getDelegate() {
+        return delegate;
+    }
 }
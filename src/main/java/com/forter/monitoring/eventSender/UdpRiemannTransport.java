@@ -0,0 +1,98 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.google.common.collect.Lists;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Sends events to riemann's UDP server, without acks or retries - for high rate events that can tolerate loss.
+ * Each datagram is a riemann message packed with as many events as fit in maxDatagramBytes, which should stay below
+ * the path MTU so datagrams are never fragmented. An event too large to fit alone is sent in a datagram of its own.
+ */
+public class UdpRiemannTransport implements RiemannTransport, Closeable {
+    // The ethernet MTU minus the IPv4 and UDP headers
+    public static final int MAX_DATAGRAM_BYTES_DEFAULT = 1500 - 20 - 8;
+
+    // Each event is a length delimited field of the message: a tag byte and the varint length before the event
+    private static final int EVENT_FIELD_TAG_BYTES = 1;
+
+    private final DatagramChannel channel;
+    private final int maxDatagramBytes;
+
+    private final AtomicLong datagrams = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+
+    public UdpRiemannTransport(String host, int port, int maxDatagramBytes) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.connect(new InetSocketAddress(host, port));
+        this.maxDatagramBytes = maxDatagramBytes;
+    }
+
+    @Override
+    public synchronized void send(List<Proto.Event> events) throws IOException {
+        List<Proto.Event> packed = Lists.newArrayList();
+        int packedBytes = 0;
+        for (Proto.Event event : events) {
+            int eventBytes = fieldSize(event.getSerializedSize());
+            if (!packed.isEmpty() && packedBytes + eventBytes > maxDatagramBytes) {
+                sendDatagram(packed);
+                packed.clear();
+                packedBytes = 0;
+            }
+            if (eventBytes > maxDatagramBytes) {
+                oversized.incrementAndGet();
+            }
+            packed.add(event);
+            packedBytes += eventBytes;
+        }
+        if (!packed.isEmpty()) {
+            sendDatagram(packed);
+        }
+    }
+
+    private void sendDatagram(List<Proto.Event> events) throws IOException {
+        byte[] message = Proto.Msg.newBuilder().addAllEvents(events).build().toByteArray();
+        channel.write(ByteBuffer.wrap(message));
+        datagrams.incrementAndGet();
+    }
+
+    private static int fieldSize(int eventBytes) {
+        int varintBytes = 1;
+        for (int value = eventBytes >>> 7; value != 0; value >>>= 7) {
+            varintBytes++;
+        }
+        return EVENT_FIELD_TAG_BYTES + varintBytes + eventBytes;
+    }
+
+    /**
+     * Datagrams are sent without a connection, so there is nothing to wait for.
+     */
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public int getMaxDatagramBytes() {
+        return maxDatagramBytes;
+    }
+
+    public long getDatagrams() {
+        return datagrams.get();
+    }
+
+    public long getOversizedEvents() {
+        return oversized.get();
+    }
+}
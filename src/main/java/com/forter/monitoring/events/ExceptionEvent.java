@@ -24,8 +24,19 @@ public class ExceptionEvent extends RiemannEvent {
     }
 
     public ExceptionEvent(Throwable t, boolean isRatioException) {
+        this(t, Throwables.getStackTraceAsString(t), isRatioException);
+    }
+
+    /**
+     * @param stackTrace the stack trace of t, already rendered.
+     */
+    public ExceptionEvent(Throwable t, String stackTrace) {
+        this(t, stackTrace, false);
+    }
+
+    private ExceptionEvent(Throwable t, String stackTrace, boolean isRatioException) {
         this(t.getMessage(), isRatioException);
-        this.attribute(MonitoringConstants.ERROR_STACK_ATTR_ID, Throwables.getStackTraceAsString(t));
+        this.attribute(MonitoringConstants.ERROR_STACK_ATTR_ID, stackTrace);
         this.attribute(MonitoringConstants.ERROR_TYPE_ATTR_ID, t.getClass().getSimpleName());
     }
 }
\ No newline at end of file
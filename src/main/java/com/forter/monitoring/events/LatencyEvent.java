@@ -2,6 +2,8 @@ package com.forter.monitoring.events;
 
 
 public class LatencyEvent extends RiemannEvent {
+    public static final String SERVICE_SUFFIX = " latency.";
+
     public Throwable error;
 
     public LatencyEvent(double latency) {
@@ -19,7 +21,7 @@ public class LatencyEvent extends RiemannEvent {
 
     @Override
     public LatencyEvent service(String service) {
-        this.service = service + " latency.";
+        this.service = ServiceNames.of(service, SERVICE_SUFFIX);
         return this;
     }
 }
\ No newline at end of file
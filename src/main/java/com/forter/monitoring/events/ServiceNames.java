@@ -0,0 +1,41 @@
+package com.forter.monitoring.events;
+
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Interns the service name of each (component, event kind) pair, so events of the same kind share one string rather
+ * than concatenating a new one per event, which also keeps the sender's prototype lookup cheap.
+ * Past MAX_NAMES_PER_KIND components per kind, names are no longer interned.
+ */
+public class ServiceNames {
+    private static final int MAX_NAMES_PER_KIND = 1024;
+    private static final ConcurrentMap<String, ConcurrentMap<String, String>> NAMES_PER_KIND = Maps.newConcurrentMap();
+
+    /**
+     * @return the component's service name for the given kind suffix (e.g. " latency.").
+     */
+    public static String of(String component, String kindSuffix) {
+        if (component == null) {
+            return component + kindSuffix;
+        }
+        ConcurrentMap<String, String> names = NAMES_PER_KIND.get(kindSuffix);
+        if (names == null) {
+            NAMES_PER_KIND.putIfAbsent(kindSuffix, Maps.<String, String>newConcurrentMap());
+            names = NAMES_PER_KIND.get(kindSuffix);
+        }
+        String name = names.get(component);
+        if (name == null) {
+            name = component + kindSuffix;
+            if (names.size() >= MAX_NAMES_PER_KIND) {
+                return name;
+            }
+            String existing = names.putIfAbsent(component, name);
+            if (existing != null) {
+                name = existing;
+            }
+        }
+        return name;
+    }
+}
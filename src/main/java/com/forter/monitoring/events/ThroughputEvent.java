@@ -10,7 +10,7 @@ public class ThroughputEvent extends RiemannEvent {
 
     @Override
     public ThroughputEvent service(String service) {
-        this.service = service + " throughput.";
+        this.service = ServiceNames.of(service, " throughput.");
         return this;
     }
 }
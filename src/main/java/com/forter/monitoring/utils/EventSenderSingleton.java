@@ -1,13 +1,84 @@
 package com.forter.monitoring.utils;
 
+import com.forter.monitoring.eventSender.AsyncRiemannEventSender;
+import com.forter.monitoring.eventSender.CircuitBreakerTransport;
+import com.forter.monitoring.eventSender.DeferredEventSender;
 import com.forter.monitoring.eventSender.EventSender;
+import com.forter.monitoring.eventSender.FileRiemannTransport;
 import com.forter.monitoring.eventSender.RiemannEventSender;
+import com.forter.monitoring.eventSender.RiemannTransport;
+import com.forter.monitoring.eventSender.RingRiemannEventSender;
+import com.forter.monitoring.eventSender.ShardedRiemannTransport;
+import com.forter.monitoring.eventSender.TcpRiemannTransport;
+import com.forter.monitoring.eventSender.UdpRiemannTransport;
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class EventSenderSingleton {
-    private final EventSender sender;
+    private static final Logger logger = LoggerFactory.getLogger(EventSenderSingleton.class);
+
+    private final DeferredEventSender sender;
+    // Opened once per process, and handed to each sender in turn
+    private final SpillBuffer spillBuffer;
+    // The sender in use and the connections and threads it holds, replaced if riemann moves
+    private volatile Running running;
+
+    // The async sender mode is set by environment, as the singleton is created before any topology conf is known
+    private static final boolean ASYNC = Boolean.parseBoolean(getEnv("RIEMANN_ASYNC_SENDER", "false"));
+    private static final int ASYNC_QUEUE_SIZE = Integer.parseInt(getEnv("RIEMANN_ASYNC_QUEUE_SIZE", "10000"));
+    private static final int ASYNC_BATCH_SIZE = Integer.parseInt(getEnv("RIEMANN_ASYNC_BATCH_SIZE", "100"));
+    private static final long ASYNC_LINGER_MILLIS = Long.parseLong(getEnv("RIEMANN_ASYNC_LINGER_MILLIS", "50"));
+    private static final AsyncRiemannEventSender.OverflowPolicy ASYNC_OVERFLOW_POLICY =
+            AsyncRiemannEventSender.OverflowPolicy.valueOf(getEnv("RIEMANN_ASYNC_OVERFLOW_POLICY", "DROP_NEWEST"));
+    private static final long ASYNC_BLOCK_TIMEOUT_MILLIS = Long.parseLong(getEnv("RIEMANN_ASYNC_BLOCK_TIMEOUT_MILLIS", "10"));
+    private static final boolean RING = Boolean.parseBoolean(getEnv("RIEMANN_RING_SENDER", "false"));
+    private static final int RING_SIZE = Integer.parseInt(getEnv("RIEMANN_RING_SIZE", "8192"));
+    private static final String SPILL_FILE = getEnv("RIEMANN_SPILL_FILE", null);
+    private static final int SPILL_MAX_BYTES = Integer.parseInt(getEnv("RIEMANN_SPILL_MAX_BYTES", String.valueOf(64 * 1024 * 1024)));
+    private static final int SPILL_DRAIN_RATE = Integer.parseInt(getEnv("RIEMANN_SPILL_DRAIN_RATE", "1000"));
+    // e.g. "RiemannEvent=udp,ExceptionEvent=tcp" - events of classes not listed are sent over TCP
+    private static final String TRANSPORTS = getEnv("RIEMANN_TRANSPORTS", null);
+    private static final int UDP_PORT = Integer.parseInt(getEnv("RIEMANN_UDP_PORT", "5555"));
+    private static final int UDP_MAX_DATAGRAM_BYTES = Integer.parseInt(getEnv("RIEMANN_UDP_MAX_DATAGRAM_BYTES",
+            String.valueOf(UdpRiemannTransport.MAX_DATAGRAM_BYTES_DEFAULT)));
+    private static final String TRANSPORT_FILE = getEnv("RIEMANN_TRANSPORT_FILE", "riemann-events.bin");
+    private static final String EVENTS_PACKAGE = RiemannEvent.class.getPackage().getName();
+    // A comma separated list of riemann hosts to shard events over, or "discover" for all the discovered riemann hosts
+    private static final String HOSTS = getEnv("RIEMANN_HOSTS", null);
+    private static final long ENDPOINT_RETRY_MILLIS = Long.parseLong(getEnv("RIEMANN_ENDPOINT_RETRY_MILLIS", "5000"));
+    private static final boolean BREAKER = Boolean.parseBoolean(getEnv("RIEMANN_BREAKER", "false"));
+    private static final int BREAKER_FAILURES = Integer.parseInt(getEnv("RIEMANN_BREAKER_FAILURES", "5"));
+    private static final long BREAKER_SLOW_MILLIS = Long.parseLong(getEnv("RIEMANN_BREAKER_SLOW_MILLIS", "1000"));
+    private static final long BREAKER_OPEN_MILLIS = Long.parseLong(getEnv("RIEMANN_BREAKER_OPEN_MILLIS", "5000"));
+    private static final long ENDPOINT_REPORT_SECONDS = Long.parseLong(getEnv("RIEMANN_ENDPOINT_REPORT_SECONDS", "10"));
+    // Names this machine in the events' services. With a list of RIEMANN_HOSTS (the static endpoint mode) riemann is
+    // used without any AWS lookup, and the machine is named by its host name unless this is set
+    private static final String MACHINE_NAME = getEnv("RIEMANN_MACHINE_NAME", null);
+    // Empty to disable caching
+    private static final String DISCOVERY_CACHE_FILE = getEnv("RIEMANN_DISCOVERY_CACHE_FILE",
+            Paths.get(System.getProperty("java.io.tmpdir"), "riemann-discovery.properties").toString());
+    private static final int STARTUP_BUFFER_SIZE = Integer.parseInt(getEnv("RIEMANN_STARTUP_BUFFER_SIZE", "10000"));
+    private static final long DISCOVERY_RETRY_MILLIS = 1000L;
+    private static final long DISCOVERY_MAX_RETRY_MILLIS = 60000L;
 
     public EventSender getSender() {
         return this.sender;
@@ -21,13 +92,327 @@ public class EventSenderSingleton {
         return SingletonHolder.INSTANCE;
     }
 
+    /*
+     * Never waits on AWS: with static hosts, or a cached discovery, the sender is created at once. Static hosts skip
+     * discovery altogether. Anything else is discovered on a background thread, while events are buffered by the
+     * deferred sender. A cached discovery is refreshed in the background as well, and the sender replaced if riemann
+     * moved.
+     */
     private EventSenderSingleton() {
-        RiemannConnection connection = new RiemannConnection();
+        this.sender = new DeferredEventSender(STARTUP_BUFFER_SIZE);
+        this.spillBuffer = SPILL_FILE == null ? null : new SpillBuffer(workerSpillFile(SPILL_FILE), SPILL_MAX_BYTES);
+
+        final List<String> staticHosts = HOSTS == null || HOSTS.equals("discover") ? null
+                : Splitter.on(',').trimResults().omitEmptyStrings().splitToList(HOSTS);
+        if (staticHosts != null) {
+            final String machineName = MACHINE_NAME != null ? MACHINE_NAME : localHostName();
+            // Only names this machine for the senders, no AWS client is created
+            RiemannDiscovery.getInstance().setName(machineName);
+            start(new RiemannDiscoveryCache.Discovered(staticHosts, machineName));
+            return;
+        }
+        if (MACHINE_NAME != null) {
+            RiemannDiscovery.getInstance().setName(MACHINE_NAME);
+        }
+
+        final RiemannDiscoveryCache cache = DISCOVERY_CACHE_FILE.isEmpty() ? null
+                : new RiemannDiscoveryCache(Paths.get(DISCOVERY_CACHE_FILE));
+        final Optional<RiemannDiscoveryCache.Discovered> cached = cache == null
+                ? Optional.<RiemannDiscoveryCache.Discovered>absent() : cache.read();
+        if (cached.isPresent()) {
+            logger.info("Using the cached riemann {} until rediscovered", cached.get());
+            RiemannDiscovery.getInstance().setName(cached.get().machineName);
+            start(cached.get());
+        }
+
+        Thread discovery = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                discover(cache);
+            }
+        }, "riemann-discovery");
+        discovery.setDaemon(true);
+        discovery.start();
+    }
+
+    /**
+     * @return the spill file of this worker - the configured path suffixed with the worker's port, which a restarted
+     * worker in the same slot shares, or with the process id outside of a Storm worker.
+     */
+    private static Path workerSpillFile(String spillFile) {
+        String worker = System.getProperty("worker.port");
+        if (worker == null) {
+            worker = String.valueOf(ProcessHandle.current().pid());
+        }
+        return Paths.get(spillFile + "." + worker);
+    }
+
+    /**
+     * Retries discovering riemann, backing off up to DISCOVERY_MAX_RETRY_MILLIS, until it succeeds.
+     */
+    private void discover(RiemannDiscoveryCache cache) {
+        long retryMillis = DISCOVERY_RETRY_MILLIS;
+        while (true) {
+            final RiemannDiscoveryCache.Discovered discovered;
+            try {
+                final Optional<String> machineName = RiemannDiscovery.getInstance().retrieveName();
+                if (!machineName.isPresent()) {
+                    logger.error("No machine name to discover riemann with, set RIEMANN_MACHINE_NAME. Events are dropped.");
+                    if (running == null) {
+                        // Nothing will ever send the buffered events
+                        sender.discard();
+                    }
+                    return;
+                }
+                discovered = new RiemannDiscoveryCache.Discovered(getRiemannHosts(), machineName.get());
+            } catch (Throwable t) {
+                logger.warn("Failed discovering riemann, retrying in " + retryMillis + "ms: ", t);
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                retryMillis = Math.min(retryMillis * 2, DISCOVERY_MAX_RETRY_MILLIS);
+                continue;
+            }
+
+            if (cache != null) {
+                cache.write(discovered);
+            }
+            final Running current = running;
+            if (current == null || !current.discovered.hosts.equals(discovered.hosts)) {
+                logger.info("Discovered riemann {}", discovered);
+                try {
+                    start(discovered);
+                } catch (RuntimeException e) {
+                    logger.error("Failed creating the riemann event sender. Events are dropped.", e);
+                    if (running == null) {
+                        sender.discard();
+                    }
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Creates a sender for the discovered hosts and sends through it, closing the sender it replaces.
+     */
+    private synchronized void start(RiemannDiscoveryCache.Discovered discovered) {
+        final Running started = new Running(discovered, spillBuffer);
+        try {
+            started.create();
+        } catch (RuntimeException e) {
+            started.close();
+            throw e;
+        }
+        final Running previous = running;
+        running = started;
+        sender.setDelegate(started.sender);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private static String localHostName() {
         try {
-            connection.connect(RiemannDiscovery.getInstance().getRiemannHost());
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            logger.warn("Failed resolving the local host name, set RIEMANN_MACHINE_NAME", e);
+            return "localhost";
         }
-        this.sender = new RiemannEventSender(connection);
+    }
+
+    private static List<String> getRiemannHosts() throws IOException {
+        if (HOSTS == null) {
+            return Collections.singletonList(RiemannDiscovery.getInstance().getRiemannHost());
+        }
+        return RiemannDiscovery.getInstance().getRiemannHosts();
+    }
+
+    /*
+     * A sender for a set of riemann hosts, with the connections and reporting threads it opened.
+     */
+    private static class Running {
+        private final RiemannDiscoveryCache.Discovered discovered;
+        private final SpillBuffer spillBuffer;
+        private final List<RiemannConnection> connections = Lists.newArrayList();
+        private final List<ScheduledExecutorService> reporters = Lists.newArrayList();
+        // The UDP and file transports
+        private final List<Closeable> closeables = Lists.newArrayList();
+        private RiemannEventSender sender;
+
+        Running(RiemannDiscoveryCache.Discovered discovered, SpillBuffer spillBuffer) {
+            this.discovered = discovered;
+            this.spillBuffer = spillBuffer;
+        }
+
+        void create() {
+            final List<String> riemannHosts = discovered.hosts;
+            RiemannConnection connection = connect(riemannHosts.get(0));
+
+            RiemannEventSender riemannEventSender;
+            if (RING) {
+                riemannEventSender = new RingRiemannEventSender(connection, RING_SIZE, ASYNC_BATCH_SIZE);
+            } else if (ASYNC) {
+                riemannEventSender = new AsyncRiemannEventSender(connection, ASYNC_QUEUE_SIZE, ASYNC_BATCH_SIZE,
+                        ASYNC_LINGER_MILLIS, ASYNC_OVERFLOW_POLICY, ASYNC_BLOCK_TIMEOUT_MILLIS);
+            } else {
+                riemannEventSender = new RiemannEventSender(connection);
+            }
+            if (spillBuffer != null) {
+                riemannEventSender.enableSpill(spillBuffer, SPILL_DRAIN_RATE);
+            }
+            this.sender = riemannEventSender;
+            if (TRANSPORTS != null || riemannHosts.size() > 1 || BREAKER) {
+                try {
+                    setTransports(connection, riemannHosts);
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        }
+
+        private RiemannConnection connect(String host) {
+            RiemannConnection connection = new RiemannConnection();
+            connection.connect(host);
+            connections.add(connection);
+            return connection;
+        }
+
+        void close() {
+            try {
+                // Stops the sender's threads, including its spill drainer
+                if (sender != null) {
+                    sender.close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (ScheduledExecutorService reporter : reporters) {
+                reporter.shutdownNow();
+            }
+            for (RiemannConnection connection : connections) {
+                connection.close();
+            }
+            for (Closeable closeable : closeables) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    logger.warn("Failed closing riemann transport", e);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void setTransports(RiemannConnection connection, List<String> riemannHosts) throws IOException {
+            RiemannTransport tcp;
+            RiemannTransport udp = null;
+            RiemannTransport file = null;
+
+            if (riemannHosts.size() == 1) {
+                tcp = withBreaker(new TcpRiemannTransport(connection), riemannHosts.get(0));
+            } else {
+                // The first host's connection also serves raw sends and spill draining
+                List<RiemannTransport> transports = Lists.newArrayList();
+                transports.add(withBreaker(new TcpRiemannTransport(connection), riemannHosts.get(0)));
+                for (String host : riemannHosts.subList(1, riemannHosts.size())) {
+                    RiemannConnection hostConnection = connect(host);
+                    transports.add(withBreaker(new TcpRiemannTransport(hostConnection), host));
+                }
+                tcp = shard(riemannHosts, transports);
+            }
+            sender.setTransport(RiemannEvent.class, tcp);
+            if (TRANSPORTS == null) {
+                return;
+            }
+
+            Map<String, String> transportPerClass = Splitter.on(',').trimResults().omitEmptyStrings()
+                    .withKeyValueSeparator('=').split(TRANSPORTS);
+            for (Map.Entry<String, String> classTransport : transportPerClass.entrySet()) {
+                String className = classTransport.getKey();
+                Class<?> eventClass;
+                try {
+                    eventClass = Class.forName(className.contains(".") ? className : EVENTS_PACKAGE + "." + className);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalArgumentException("Unknown riemann event class " + className, e);
+                }
+                if (!RiemannEvent.class.isAssignableFrom(eventClass)) {
+                    throw new IllegalArgumentException(className + " is not a riemann event class");
+                }
+
+                RiemannTransport transport;
+                switch (classTransport.getValue()) {
+                    case "tcp":
+                        transport = tcp;
+                        break;
+                    case "udp":
+                        if (udp == null) {
+                            List<RiemannTransport> transports = Lists.newArrayList();
+                            for (String host : riemannHosts) {
+                                UdpRiemannTransport hostUdp = new UdpRiemannTransport(host, UDP_PORT, UDP_MAX_DATAGRAM_BYTES);
+                                closeables.add(hostUdp);
+                                transports.add(hostUdp);
+                            }
+                            udp = riemannHosts.size() == 1 ? transports.get(0) : shard(riemannHosts, transports);
+                        }
+                        transport = udp;
+                        break;
+                    case "file":
+                        if (file == null) {
+                            FileRiemannTransport fileTransport = new FileRiemannTransport(Paths.get(TRANSPORT_FILE));
+                            closeables.add(fileTransport);
+                            file = fileTransport;
+                        }
+                        transport = file;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown riemann transport " + classTransport.getValue());
+                }
+                sender.setTransport((Class<? extends RiemannEvent>) eventClass, transport);
+            }
+        }
+
+        private RiemannTransport withBreaker(RiemannTransport transport, String host) {
+            if (!BREAKER) {
+                return transport;
+            }
+            CircuitBreakerTransport breaker = new CircuitBreakerTransport(transport, host, BREAKER_FAILURES,
+                    BREAKER_SLOW_MILLIS, BREAKER_OPEN_MILLIS);
+            sender.addCircuitBreaker(breaker);
+            return breaker;
+        }
+
+        /**
+         * Shards the events over the hosts' transports, and reports the state of each endpoint periodically.
+         */
+        private RiemannTransport shard(List<String> riemannHosts, List<RiemannTransport> transports) {
+            final ShardedRiemannTransport sharded = new ShardedRiemannTransport(riemannHosts, transports, ENDPOINT_RETRY_MILLIS);
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("riemann-endpoint-reporter").build());
+            reporters.add(reporter);
+            reporter.scheduleAtFixedRate(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                for (RiemannEvent event : sharded.flush()) {
+                                    sender.send(event);
+                                }
+                            } catch (Throwable t) {
+                                logger.warn("Failed reporting riemann endpoints", t);
+                            }
+                        }
+                    },
+                    ENDPOINT_REPORT_SECONDS,
+                    ENDPOINT_REPORT_SECONDS,
+                    TimeUnit.SECONDS);
+            return sharded;
+        }
+    }
+
+    private static String getEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value;
     }
 }
@@ -0,0 +1,150 @@
+package com.forter.monitoring.utils;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/*
+ * A lock free, HDR style (log-linear) histogram of non negative long values.
+ * Values below SUB_BUCKETS are counted exactly, larger values keep their top SUB_BUCKET_BITS bits, which bounds the
+ * relative error of any reported percentile to below 1/64 (~1.5%).
+ * Recording is a single atomic increment and allocates nothing. snapshotAndReset() drains the counts so each
+ * snapshot covers the interval since the previous one.
+ * Latencies are recorded in microseconds and reported, as p50/p95/p99/max/count statistics, in milliseconds.
+ */
+public class LatencyHistogram {
+    public static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final double[] PERCENTILES = {50, 95, 99};
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private final LongAccumulator max;
+
+    /**
+     * @return a histogram of latencies in microseconds, up to an hour.
+     */
+    public static LatencyHistogram ofMicros() {
+        return new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+    }
+
+    public LatencyHistogram(long highestTrackableValue) {
+        this.highestTrackableValue = Math.max(highestTrackableValue, SUB_BUCKETS);
+        this.counts = new AtomicLongArray(indexOf(this.highestTrackableValue) + 1);
+        this.max = new LongAccumulator(Math::max, 0L);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        max.accumulate(value);
+        counts.incrementAndGet(indexOf(Math.min(value, highestTrackableValue)));
+    }
+
+    public Snapshot snapshotAndReset() {
+        long[] drained = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < drained.length; i++) {
+            drained[i] = counts.getAndSet(i, 0);
+            total += drained[i];
+        }
+        return new Snapshot(drained, total, max.getThenReset());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((value >>> shift) - HALF_SUB_BUCKETS);
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the highest value equivalent to the bucket holding the percentile, capped by the recorded max.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueAt(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return the p50, p95, p99 and max of the latencies, recorded in microseconds, in milliseconds and their count -
+         * by statistic name, in that order.
+         */
+        public Map<String, Number> getMillisStatistics() {
+            Map<String, Number> statistics = Maps.newLinkedHashMap();
+            for (double percentile : PERCENTILES) {
+                statistics.put("p" + (int) percentile, toMillis(getValueAtPercentile(percentile)));
+            }
+            statistics.put("max", toMillis(max));
+            statistics.put("count", count);
+            return statistics;
+        }
+
+        /**
+         * @return an event per statistic of getMillisStatistics(), whose service is the prefix and the statistic name.
+         */
+        public List<RiemannEvent> toEvents(String servicePrefix, String... tags) {
+            List<RiemannEvent> events = Lists.newArrayList();
+            for (Map.Entry<String, Number> statistic : getMillisStatistics().entrySet()) {
+                events.add(new RiemannEvent()
+                        .metric(statistic.getValue().doubleValue())
+                        .service(servicePrefix + " " + statistic.getKey())
+                        .tags(tags));
+            }
+            return events;
+        }
+
+        public static double toMillis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
@@ -3,4 +3,5 @@ package com.forter.monitoring.utils;
 public class MonitoringConstants {
     public static final String ERROR_STACK_ATTR_ID = "stackTrace";
     public static final String ERROR_TYPE_ATTR_ID = "exceptionType";
+    public static final String EMIT_TIME_FIELD = "monitoringEmitTime";
 }
@@ -0,0 +1,139 @@
+package com.forter.monitoring.utils;
+
+import com.forter.monitoring.events.RiemannEvent;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * What the monitoring itself costs the worker: the time spent registering latencies, waiting for the latency store's
+ * locks, in the monitored output collector and sending events, the number of tracked latencies and their removals by
+ * cause, and the events created, sent and bytes encoded.
+ * Recording must stay far cheaper than what it measures: counters are striped LongAdders, and timers only read the
+ * clock for one in SAMPLE_EVERY calls - the total time of each timer is estimated from its sampled mean and its call
+ * count. flush() reports everything per second of the interval since the previous flush.
+ * Shared by the whole worker, as the latency store and event sender are.
+ */
+public class MonitoringOverhead {
+    public static final String OVERHEAD_TAG = "monitoring-overhead";
+
+    private static final int SAMPLE_EVERY = 64;
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final MonitoringOverhead INSTANCE = new MonitoringOverhead();
+
+    public final Timer registerLatency = new Timer("register-latency");
+    public final Timer lockWait = new Timer("lock-wait");
+    public final Timer collector = new Timer("collector");
+    public final Timer send = new Timer("send");
+
+    private final LongAdder[] removalsPerCause = new LongAdder[RemovalCause.values().length];
+    private final LongAdder eventsCreated = new LongAdder();
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder bytesEncoded = new LongAdder();
+    private long lastFlushNanos = System.nanoTime();
+
+    private MonitoringOverhead() {
+        for (int i = 0; i < removalsPerCause.length; i++) {
+            removalsPerCause[i] = new LongAdder();
+        }
+    }
+
+    public static MonitoringOverhead getInstance() {
+        return INSTANCE;
+    }
+
+    public void recordRemoval(RemovalCause cause) {
+        removalsPerCause[cause.ordinal()].increment();
+    }
+
+    public void recordEventCreated() {
+        eventsCreated.increment();
+    }
+
+    public void recordEventsSent(int events, long bytes) {
+        eventsSent.add(events);
+        bytesEncoded.add(bytes);
+    }
+
+    /**
+     * @return events with the overhead per second since the previous flush, and the number of tracked latencies.
+     */
+    public synchronized Iterable<RiemannEvent> flush(long trackedLatencies) {
+        final long now = System.nanoTime();
+        final double seconds = Math.max(1, now - lastFlushNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastFlushNanos = now;
+
+        List<RiemannEvent> events = Lists.newArrayList();
+        for (Timer timer : new Timer[] {registerLatency, lockWait, collector, send}) {
+            timer.addEvents(events, seconds);
+        }
+        events.add(createEvent("tracked-latencies", trackedLatencies));
+        for (RemovalCause cause : RemovalCause.values()) {
+            events.add(createEvent("removed " + cause.name() + " per-second",
+                    removalsPerCause[cause.ordinal()].sumThenReset() / seconds));
+        }
+        events.add(createEvent("events-created per-second", eventsCreated.sumThenReset() / seconds));
+        events.add(createEvent("events-sent per-second", eventsSent.sumThenReset() / seconds));
+        events.add(createEvent("bytes-encoded per-second", bytesEncoded.sumThenReset() / seconds));
+        return events;
+    }
+
+    private static RiemannEvent createEvent(String statistic, double metric) {
+        return new RiemannEvent()
+                .metric(metric)
+                .service(OVERHEAD_TAG + " " + statistic)
+                .tags(OVERHEAD_TAG);
+    }
+
+    /**
+     * Counts every call, and times one in SAMPLE_EVERY:
+     *  final long start = timer.start();
+     *  ...
+     *  timer.stop(start);
+     */
+    public static class Timer {
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder sampledNanos = new LongAdder();
+        private final LatencyHistogram sampled = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        public long start() {
+            calls.increment();
+            return ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0 ? System.nanoTime() : NOT_SAMPLED;
+        }
+
+        public void stop(long start) {
+            if (start != NOT_SAMPLED) {
+                final long nanos = Math.max(0, System.nanoTime() - start);
+                sampled.record(nanos);
+                sampledNanos.add(nanos);
+            }
+        }
+
+        private void addEvents(List<RiemannEvent> events, double seconds) {
+            final long callCount = calls.sumThenReset();
+            final long totalSampledNanos = sampledNanos.sumThenReset();
+            final LatencyHistogram.Snapshot snapshot = sampled.snapshotAndReset();
+            events.add(createEvent(name + " calls-per-second", callCount / seconds));
+            if (snapshot.getCount() == 0) {
+                return;
+            }
+            // The budget to alert on: the estimated time spent per second of wall time
+            final double meanNanos = totalSampledNanos / (double) snapshot.getCount();
+            events.add(createEvent(name + " millis-per-second", meanNanos * callCount / seconds / 1e6));
+            events.add(createEvent(name + " p50-micros", snapshot.getValueAtPercentile(50) / 1000.0));
+            events.add(createEvent(name + " p99-micros", snapshot.getValueAtPercentile(99) / 1000.0));
+            events.add(createEvent(name + " max-micros", snapshot.getMax() / 1000.0));
+        }
+    }
+}
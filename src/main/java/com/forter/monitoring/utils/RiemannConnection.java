@@ -34,6 +34,19 @@ public class RiemannConnection {
         }
     }
 
+    /**
+     * Disconnects from riemann, e.g. when riemann moved to other hosts. The connection can't be reused.
+     */
+    public void close() {
+        if (client != null) {
+            try {
+                client.disconnect();
+            } catch (IOException e) {
+                logger.info("Failed disconnecting from riemann " + riemannIP + ":" + riemannPort, e);
+            }
+        }
+    }
+
     public RiemannClient getClient() {
         return client;
     }
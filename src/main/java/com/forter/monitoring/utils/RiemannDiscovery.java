@@ -10,7 +10,10 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -28,33 +31,52 @@ This class represents the discovery of the riemann machine.
 It is possible to use it to get the IP of a machine, based on its name / id.
 */
 public class RiemannDiscovery {
-    private final AmazonEC2 ec2Client;
+    // Created on first use, so that configured riemann hosts and machine names never touch AWS
+    private final Supplier<AmazonEC2> ec2Client;
     private final Object nameCacheLocker = new Object();
-    private Optional<String> retrievedName = Optional.absent();
+    private volatile Optional<String> retrievedName = Optional.absent();
 
     private static class SingletonHolder {
         private static final RiemannDiscovery INSTANCE = new RiemannDiscovery();
     }
 
     private RiemannDiscovery() {
-        ec2Client = new AmazonEC2Client(new AWSCredentialsProviderChain(new InstanceProfileCredentialsProvider(), new EnvironmentVariableCredentialsProvider()));
+        ec2Client = Suppliers.memoize(new Supplier<AmazonEC2>() {
+            @Override
+            public AmazonEC2 get() {
+                return new AmazonEC2Client(new AWSCredentialsProviderChain(new InstanceProfileCredentialsProvider(), new EnvironmentVariableCredentialsProvider()));
+            }
+        });
     }
 
     public String getRiemannHost() throws IOException {
+        return (Iterables.get(RiemannDiscovery.getInstance().describeInstancesByName(getRiemannMachineName()), 0)).getPrivateIpAddress();
+    }
+
+    /**
+     * @return the addresses of all the running riemann machines of this environment, sorted.
+     */
+    public List<String> getRiemannHosts() throws IOException {
+        List<String> hosts = Lists.newArrayList();
+        for (Instance instance : describeInstancesByName(getRiemannMachineName())) {
+            hosts.add(instance.getPrivateIpAddress());
+        }
+        Collections.sort(hosts);
+        return hosts;
+    }
+
+    private String getRiemannMachineName() throws IOException {
         Optional<String> machineNameOpt = retrieveName();
         Preconditions.checkArgument(machineNameOpt.isPresent());
         String machineName = machineNameOpt.get();
 
-        final String riemannMachineName;
         if (machineName.startsWith("prod-vt")) {
-            riemannMachineName = "prod-vtriemann-instance";
+            return "prod-vtriemann-instance";
         } else if (machineName.startsWith("prod")) {
-            riemannMachineName = "prod-riemann-instance";
+            return "prod-riemann-instance";
         } else {
-            riemannMachineName = "develop-riemann-instance";
+            return "develop-riemann-instance";
         }
-
-        return (Iterables.get(RiemannDiscovery.getInstance().describeInstancesByName(riemannMachineName), 0)).getPrivateIpAddress();
     }
 
     public static RiemannDiscovery getInstance() {
@@ -86,6 +108,15 @@ public class RiemannDiscovery {
         return !f.exists();
     }
 
+    /**
+     * Sets the name of this machine instead of retrieving it from AWS, e.g. when it is configured or cached.
+     */
+    public void setName(String name) {
+        synchronized (nameCacheLocker) {
+            retrievedName = of(name);
+        }
+    }
+
     public Optional<String> retrieveName() throws IOException {
         if (retrievedName.isPresent()) return retrievedName;
         synchronized (nameCacheLocker) {
@@ -125,7 +156,7 @@ public class RiemannDiscovery {
     }
 
     private Iterable<Instance> describeInstances(DescribeInstancesRequest request) {
-        final DescribeInstancesResult result = ec2Client.describeInstances(request);
+        final DescribeInstancesResult result = ec2Client.get().describeInstances(request);
         return Iterables.concat(
                 Iterables.transform(result.getReservations(),
                         new Function<Reservation, List<Instance>>() {
@@ -0,0 +1,108 @@
+package com.forter.monitoring.utils;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+
+/*
+ * Keeps the discovered riemann hosts and this machine's name in a local file, so the next worker on this machine can
+ * start sending at once instead of waiting on AWS. The file is replaced atomically, so concurrently starting workers
+ * never read a partial one.
+ */
+public class RiemannDiscoveryCache {
+    private static final Logger logger = LoggerFactory.getLogger(RiemannDiscoveryCache.class);
+
+    private static final String HOSTS_KEY = "hosts";
+    private static final String MACHINE_NAME_KEY = "machineName";
+
+    public static class Discovered {
+        public final List<String> hosts;
+        public final String machineName;
+
+        public Discovered(List<String> hosts, String machineName) {
+            this.hosts = hosts;
+            this.machineName = machineName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Discovered)) return false;
+            Discovered that = (Discovered) o;
+            return hosts.equals(that.hosts) && machineName.equals(that.machineName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * hosts.hashCode() + machineName.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "hosts " + hosts + " of machine " + machineName;
+        }
+    }
+
+    private final Path file;
+
+    public RiemannDiscoveryCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the cached hosts and machine name, absent if there's no (valid) cache file.
+     */
+    public Optional<Discovered> read() {
+        if (!Files.exists(file)) {
+            return Optional.absent();
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            logger.warn("Failed reading the riemann discovery cache " + file, e);
+            return Optional.absent();
+        }
+        String hosts = properties.getProperty(HOSTS_KEY);
+        String machineName = properties.getProperty(MACHINE_NAME_KEY);
+        if (hosts == null || machineName == null) {
+            return Optional.absent();
+        }
+        List<String> hostList = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(hosts);
+        return hostList.isEmpty() ? Optional.<Discovered>absent() : Optional.of(new Discovered(hostList, machineName));
+    }
+
+    public void write(Discovered discovered) {
+        Properties properties = new Properties();
+        properties.setProperty(HOSTS_KEY, Joiner.on(',').join(discovered.hosts));
+        properties.setProperty(MACHINE_NAME_KEY, discovered.machineName);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Discovered riemann hosts");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed writing the riemann discovery cache " + file, e);
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException deleteFailure) {
+                    // left for the tmp cleaner
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.forter.monitoring.utils;
+
+import com.google.common.base.Throwables;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * A size capped ring of length prefixed records kept in a memory mapped file.
+ * The header holds the read/write offsets, so records spilled before a worker restart are drained after it, and the
+ * capacity the file was created with - a file of another capacity is rejected rather than misread.
+ * The file must only be opened by a single buffer at a time: records are not synchronized across processes.
+ * A record that doesn't fit before the end of the file is preceded by a wrap marker and written at the start.
+ * When the ring is full new records are rejected rather than overwriting ones not yet drained.
+ */
+public class SpillBuffer {
+    private static final int HEADER_BYTES = 24;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int READ_OFFSET = 8;
+    private static final int WRITE_OFFSET = 12;
+    private static final int USED_OFFSET = 16;
+    private static final int COUNT_OFFSET = 20;
+    private static final int MAGIC = 0x52535031;
+    private static final int WRAP_MARKER = -1;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private int readPosition;
+    private int writePosition;
+    private int usedBytes;
+    private int records;
+
+    /**
+     * @throws IllegalStateException if the file is a spill buffer of another capacity.
+     */
+    public SpillBuffer(Path file, int capacityBytes) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            checkCapacity(file, channel, capacityBytes);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacityBytes);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        this.capacity = capacityBytes;
+        loadHeader();
+    }
+
+    /*
+     * Checked before mapping, which would grow or misread a file of another capacity.
+     */
+    private static void checkCapacity(Path file, FileChannel channel, int capacityBytes) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            // A file read only stops short at its end
+        }
+        if (header.position() == HEADER_BYTES && header.getInt(MAGIC_OFFSET) == MAGIC
+                && header.getInt(CAPACITY_OFFSET) != capacityBytes) {
+            throw new IllegalStateException("Spill file " + file + " has a capacity of " + header.getInt(CAPACITY_OFFSET)
+                    + " bytes, not " + capacityBytes + " - remove it or use another file");
+        }
+    }
+
+    private void loadHeader() {
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            // A new file
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            clear();
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            return;
+        }
+        readPosition = buffer.getInt(READ_OFFSET);
+        writePosition = buffer.getInt(WRITE_OFFSET);
+        usedBytes = buffer.getInt(USED_OFFSET);
+        records = buffer.getInt(COUNT_OFFSET);
+
+        // A corrupt header
+        if (readPosition < 0 || readPosition >= capacity || writePosition < 0 || writePosition >= capacity
+                || usedBytes < 0 || usedBytes > capacity || records < 0) {
+            clear();
+        }
+    }
+
+    private void storeHeader() {
+        buffer.putInt(READ_OFFSET, readPosition);
+        buffer.putInt(WRITE_OFFSET, writePosition);
+        buffer.putInt(USED_OFFSET, usedBytes);
+        buffer.putInt(COUNT_OFFSET, records);
+    }
+
+    public synchronized void clear() {
+        readPosition = 0;
+        writePosition = 0;
+        usedBytes = 0;
+        records = 0;
+        storeHeader();
+    }
+
+    /**
+     * @return false if there isn't enough free space for the record.
+     */
+    public synchronized boolean append(byte[] record) {
+        final int needed = 4 + record.length;
+
+        if (records == 0) {
+            readPosition = 0;
+            writePosition = 0;
+            usedBytes = 0;
+        }
+
+        int tail = capacity - writePosition;
+        if (writePosition >= readPosition && needed > tail) {
+            // Doesn't fit before the end of the file - wrap, wasting the tail
+            if (usedBytes + tail + needed > capacity || needed > readPosition) {
+                return false;
+            }
+            if (tail >= 4) {
+                buffer.putInt(HEADER_BYTES + writePosition, WRAP_MARKER);
+            }
+            usedBytes += tail;
+            writePosition = 0;
+        } else if (usedBytes + needed > capacity || (writePosition < readPosition && needed > readPosition - writePosition)) {
+            return false;
+        }
+
+        buffer.putInt(HEADER_BYTES + writePosition, record.length);
+        for (int i = 0; i < record.length; i++) {
+            buffer.put(HEADER_BYTES + writePosition + 4 + i, record[i]);
+        }
+        writePosition = (writePosition + needed) % capacity;
+        usedBytes += needed;
+        records++;
+        storeHeader();
+        return true;
+    }
+
+    /**
+     * @return a cursor over the records currently in the buffer, which reads them without removing them.
+     */
+    public synchronized Cursor cursor() {
+        return new Cursor(readPosition, records);
+    }
+
+    /**
+     * Removes the given number of records from the head of the buffer.
+     */
+    public synchronized void remove(int count) {
+        for (int i = 0; i < count && records > 0; i++) {
+            int position = skipWrap(readPosition);
+            usedBytes -= position == readPosition ? 0 : capacity - readPosition;
+            int needed = 4 + buffer.getInt(HEADER_BYTES + position);
+            readPosition = (position + needed) % capacity;
+            usedBytes -= needed;
+            records--;
+        }
+        storeHeader();
+    }
+
+    private int skipWrap(int position) {
+        if (capacity - position < 4 || buffer.getInt(HEADER_BYTES + position) == WRAP_MARKER) {
+            return 0;
+        }
+        return position;
+    }
+
+    private synchronized int read(int position, byte[] into) {
+        int length = buffer.getInt(HEADER_BYTES + position);
+        if (length > into.length) {
+            return -length;
+        }
+        for (int i = 0; i < length; i++) {
+            into[i] = buffer.get(HEADER_BYTES + position + 4 + i);
+        }
+        return length;
+    }
+
+    public class Cursor {
+        private int position;
+        private int remaining;
+
+        private Cursor(int position, int remaining) {
+            this.position = position;
+            this.remaining = remaining;
+        }
+
+        /**
+         * Copies the next record into the given buffer.
+         * @return the record length, 0 if no records are left, or the negated length if the given buffer is too
+         * small, in which case the cursor doesn't advance.
+         */
+        public int next(byte[] into) {
+            if (remaining == 0) {
+                return 0;
+            }
+            position = skipWrap(position);
+            int length = read(position, into);
+            if (length >= 0) {
+                position = (position + 4 + length) % capacity;
+                remaining--;
+            }
+            return length;
+        }
+    }
+
+    public synchronized int getRecords() {
+        return records;
+    }
+
+    public synchronized int getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getCapacityBytes() {
+        return capacity;
+    }
+}
@@ -0,0 +1,144 @@
+package com.forter.monitoring.utils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Tuples of a given source component and stream always share the same fields, so the positions of the fields the
+ * monitor reads from tuples - the "_" prefixed attributes, "_queueTime" and the stamped emit time - are resolved once
+ * per (component, stream) into a plan, and values are then read by index.
+ */
+public class TupleAttributePlans {
+    public static final long NO_QUEUE_TIME = Long.MIN_VALUE;
+    public static final long NO_EMIT_TIME = Long.MIN_VALUE;
+
+    private static final String ATTRIBUTE_PREFIX = "_";
+    private static final String QUEUE_TIME_FIELD = "_queueTime";
+
+    private static final TupleAttributePlans INSTANCE = new TupleAttributePlans();
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Plan>> plansPerComponent = Maps.newConcurrentMap();
+
+    public static TupleAttributePlans getInstance() {
+        return INSTANCE;
+    }
+
+    public Plan get(Tuple tuple) {
+        final String component = tuple.getSourceComponent();
+        final String stream = tuple.getSourceStreamId();
+        final Fields fields = tuple.getFields();
+        if (component == null || stream == null) {
+            return new Plan(fields);
+        }
+
+        ConcurrentMap<String, Plan> plansPerStream = plansPerComponent.get(component);
+        if (plansPerStream == null) {
+            plansPerComponent.putIfAbsent(component, Maps.<String, Plan>newConcurrentMap());
+            plansPerStream = plansPerComponent.get(component);
+        }
+
+        Plan plan = plansPerStream.get(stream);
+        if (plan == null || !plan.matches(fields)) {
+            plan = new Plan(fields);
+            plansPerStream.put(stream, plan);
+        }
+        return plan;
+    }
+
+    public static class Plan {
+        private final Fields fields;
+        private final List<String> fieldNames;
+        private final String[] attributeNames;
+        private final int[] attributeIndices;
+        private final int queueTimeIndex;
+        private final int emitTimeIndex;
+
+        private Plan(Fields fields) {
+            this.fields = fields;
+            this.fieldNames = fields.toList();
+
+            List<String> attributeNames = Lists.newArrayList();
+            List<Integer> attributeIndices = Lists.newArrayList();
+            int queueTimeIndex = -1;
+            int emitTimeIndex = -1;
+            for (int i = 0; i < fields.size(); i++) {
+                String field = fields.get(i);
+                if (field.startsWith(ATTRIBUTE_PREFIX)) {
+                    attributeNames.add(field.substring(ATTRIBUTE_PREFIX.length()));
+                    attributeIndices.add(i);
+                }
+                if (field.equals(QUEUE_TIME_FIELD)) {
+                    queueTimeIndex = i;
+                }
+                if (field.equals(MonitoringConstants.EMIT_TIME_FIELD)) {
+                    emitTimeIndex = i;
+                }
+            }
+            this.attributeNames = attributeNames.toArray(new String[0]);
+            this.attributeIndices = Ints.toArray(attributeIndices);
+            this.queueTimeIndex = queueTimeIndex;
+            this.emitTimeIndex = emitTimeIndex;
+        }
+
+        private boolean matches(Fields fields) {
+            // Storm hands out the same Fields instance for every tuple of a stream
+            return this.fields == fields || fieldNames.equals(fields.toList());
+        }
+
+        public int getAttributeCount() {
+            return attributeNames.length;
+        }
+
+        /**
+         * @return the name of the i-th "_" prefixed attribute, without the prefix.
+         */
+        public String getAttributeName(int i) {
+            return attributeNames[i];
+        }
+
+        public String getAttributeValue(Tuple tuple, int i) {
+            return String.valueOf(tuple.getValue(attributeIndices[i]));
+        }
+
+        /**
+         * @return the time (epoch millis) the tuple was queued, if the user supplied it in the _queueTime field, or
+         * NO_QUEUE_TIME.
+         */
+        public long getQueueTime(Tuple tuple) {
+            if (queueTimeIndex < 0) {
+                return NO_QUEUE_TIME;
+            }
+            final Object queueTime = tuple.getValue(queueTimeIndex);
+            if (queueTime instanceof Number) {
+                return ((Number) queueTime).longValue();
+            }
+            final String queueTimeString = String.valueOf(queueTime);
+            if (queueTimeString.equals("unknown")) {
+                return NO_QUEUE_TIME;
+            }
+            try {
+                return Long.parseLong(queueTimeString);
+            } catch (NumberFormatException nfe) {
+                return NO_QUEUE_TIME;
+            }
+        }
+
+        /**
+         * @return the time (epoch millis) the tuple was emitted, if stamped by the upstream MonitoredOutputCollector,
+         * or NO_EMIT_TIME.
+         */
+        public long getEmitTime(Tuple tuple) {
+            if (emitTimeIndex < 0) {
+                return NO_EMIT_TIME;
+            }
+            final Object emitTime = tuple.getValue(emitTimeIndex);
+            return emitTime instanceof Long ? (Long) emitTime : NO_EMIT_TIME;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.forter.monitoring;
+
+import com.forter.monitoring.events.ExceptionEvent;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.MonitoringConstants;
+import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AggregatedErrorsTest {
+    private final AggregatedErrors errors = new AggregatedErrors("bolt");
+
+    private static Throwable error(String message) {
+        return new IllegalStateException(message);
+    }
+
+    private static Throwable otherError(String message) {
+        return new IllegalStateException(message);
+    }
+
+    private List<Optional<RiemannEvent>> recordErrors(int count) {
+        List<Optional<RiemannEvent>> events = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            events.add(errors.record(error("error " + i)));
+        }
+        return events;
+    }
+
+    @Test
+    public void tracesOnlyFirstErrorOfFingerprintPerWindow() {
+        List<Optional<RiemannEvent>> events = recordErrors(3);
+
+        assertTrue(events.get(0).isPresent());
+        assertTrue(events.get(0).get() instanceof ExceptionEvent);
+        assertTrue(events.get(0).get().description.contains("error 0"));
+        assertFalse(events.get(1).isPresent());
+        assertFalse(events.get(2).isPresent());
+
+        RiemannEvent count = Iterables.getOnlyElement(errors.flush());
+        assertEquals(3, count.metric, 0);
+        assertEquals("IllegalStateException", count.customAttributes.get(MonitoringConstants.ERROR_TYPE_ATTR_ID));
+        assertEquals(events.get(0).get().customAttributes.get(AggregatedErrors.FINGERPRINT_ATTR_ID),
+                count.customAttributes.get(AggregatedErrors.FINGERPRINT_ATTR_ID));
+    }
+
+    @Test
+    public void nextWindowTracesAgain() {
+        recordErrors(2);
+        errors.flush();
+
+        List<Optional<RiemannEvent>> events = recordErrors(2);
+        assertTrue(events.get(0).isPresent());
+        assertTrue(events.get(0).get().description.contains("error 0"));
+        assertFalse(events.get(1).isPresent());
+        assertEquals(2, Iterables.getOnlyElement(errors.flush()).metric, 0);
+    }
+
+    @Test
+    public void fingerprintsByStackFrames() {
+        assertTrue(errors.record(error("a")).isPresent());
+        assertTrue(errors.record(otherError("a")).isPresent());
+        assertTrue(errors.record(new IllegalArgumentException("a")).isPresent());
+
+        List<RiemannEvent> counts = Lists.newArrayList(errors.flush());
+        assertEquals(3, counts.size());
+        for (RiemannEvent count : counts) {
+            assertEquals(1, count.metric, 0);
+        }
+    }
+
+    @Test
+    public void idleFingerprintsAreForgotten() {
+        recordErrors(1);
+        assertEquals(1, Iterables.size(errors.flush()));
+        // Idle for a window - nothing to report, and forgotten
+        assertEquals(0, Iterables.size(errors.flush()));
+        assertEquals(0, Iterables.size(errors.flush()));
+
+        List<Optional<RiemannEvent>> events = recordErrors(1);
+        assertTrue(events.get(0).isPresent());
+        assertEquals(1, Iterables.getOnlyElement(errors.flush()).metric, 0);
+    }
+
+    @Test
+    public void countsEveryErrorRecordedConcurrentlyWithFlushes() throws InterruptedException {
+        final int perThread = 20000;
+        Thread[] recorders = new Thread[4];
+        for (int t = 0; t < recorders.length; t++) {
+            recorders[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        errors.record(error("concurrent"));
+                    }
+                }
+            });
+            recorders[t].start();
+        }
+
+        long counted = 0;
+        boolean recording = true;
+        while (recording) {
+            recording = false;
+            for (Thread recorder : recorders) {
+                recording |= recorder.isAlive();
+            }
+            for (RiemannEvent count : errors.flush()) {
+                counted += (long) count.metric;
+            }
+        }
+        for (RiemannEvent count : errors.flush()) {
+            counted += (long) count.metric;
+        }
+        assertEquals(recorders.length * perThread, counted);
+    }
+}
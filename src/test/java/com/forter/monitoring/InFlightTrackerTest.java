@@ -0,0 +1,125 @@
+package com.forter.monitoring;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InFlightTrackerTest {
+    // The tracker's initial capacity, which it keeps while at most half full
+    private static final int MASK = 1023;
+
+    private final InFlightTracker tracker = new InFlightTracker("spout", 0);
+
+    /**
+     * @return ids whose probe sequence starts at the slot, to build clusters of colliding ids.
+     */
+    private static List<Object> idsHomedAt(int slot, int count) {
+        List<Object> ids = Lists.newArrayList();
+        for (long id = 0; ids.size() < count; id++) {
+            if ((InFlightTracker.hash(id) & MASK) == slot) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void tracksPendingIds() {
+        tracker.emitted("a", 100);
+        tracker.emitted("b", 200);
+        assertEquals(2, tracker.getPending());
+        assertEquals(900, tracker.getOldestAgeNanos(1000));
+
+        assertTrue(tracker.completed("a", true, 300));
+        assertFalse("already completed", tracker.completed("a", true, 300));
+        assertFalse("never emitted", tracker.completed("c", false, 300));
+        assertEquals(800, tracker.getOldestAgeNanos(1000));
+
+        assertTrue(tracker.completed("b", false, 400));
+        assertEquals(0, tracker.getPending());
+        assertEquals(0, tracker.getOldestAgeNanos(1000));
+    }
+
+    @Test
+    public void probeChainWrapsAround() {
+        List<Object> last = idsHomedAt(MASK, 3);
+        List<Object> first = idsHomedAt(0, 1);
+        // Fills slots 1023, 0, 1 and 2, the id homed at 0 being pushed past the wrapped ones
+        for (int i = 0; i < last.size(); i++) {
+            tracker.emitted(last.get(i), i);
+        }
+        tracker.emitted(first.get(0), 3);
+
+        // Deleting the head of the chain moves the wrapped ids back across the end of the table
+        assertTrue(tracker.completed(last.get(0), true, 10));
+        assertEquals(3, tracker.getPending());
+        assertEquals(9, tracker.getOldestAgeNanos(10));
+        assertTrue(tracker.completed(first.get(0), true, 10));
+        assertTrue(tracker.completed(last.get(2), true, 10));
+        assertTrue(tracker.completed(last.get(1), true, 10));
+        assertEquals(0, tracker.getPending());
+    }
+
+    @Test
+    public void deletesMidCluster() {
+        List<Object> home10 = idsHomedAt(10, 3);
+        List<Object> home11 = idsHomedAt(11, 1);
+        // Slots 10 to 13, the id homed at 11 in the last one
+        for (int i = 0; i < home10.size(); i++) {
+            tracker.emitted(home10.get(i), i);
+        }
+        tracker.emitted(home11.get(0), 3);
+
+        assertTrue(tracker.completed(home10.get(1), true, 10));
+        assertEquals(3, tracker.getPending());
+
+        // The moved ids are still found, and still in emit order
+        assertEquals(10, tracker.getOldestAgeNanos(10));
+        assertTrue(tracker.completed(home10.get(0), true, 10));
+        assertEquals(8, tracker.getOldestAgeNanos(10));
+        assertTrue(tracker.completed(home10.get(2), true, 10));
+        assertEquals(7, tracker.getOldestAgeNanos(10));
+        assertTrue(tracker.completed(home11.get(0), true, 10));
+        assertEquals(0, tracker.getPending());
+    }
+
+    @Test
+    public void reemittingRestartsAge() {
+        tracker.emitted("a", 100);
+        tracker.emitted("b", 200);
+        tracker.emitted("a", 300);
+
+        assertEquals(2, tracker.getPending());
+        assertEquals(800, tracker.getOldestAgeNanos(1000));
+        assertTrue(tracker.completed("b", true, 400));
+        assertEquals(700, tracker.getOldestAgeNanos(1000));
+        assertTrue(tracker.completed("a", true, 400));
+        assertFalse(tracker.completed("a", true, 400));
+    }
+
+    @Test
+    public void resizeKeepsPendingIdsInAgeOrder() {
+        final int count = 5000;
+        for (int i = 0; i < 10; i++) {
+            tracker.emitted(i, i);
+        }
+        assertTrue(tracker.completed(0, true, 10));
+        assertTrue(tracker.completed(1, false, 10));
+        // Grows the table several times while ids 2 and up are pending
+        for (int i = 10; i < count; i++) {
+            tracker.emitted(i, i);
+        }
+        assertEquals(count - 2, tracker.getPending());
+        assertEquals(count - 2, tracker.getOldestAgeNanos(count));
+
+        for (int i = 2; i < count; i++) {
+            assertEquals(count - i, tracker.getOldestAgeNanos(count));
+            assertTrue("id " + i + " is found", tracker.completed(i, true, count));
+        }
+        assertEquals(0, tracker.getPending());
+        assertEquals(0, tracker.getOldestAgeNanos(count));
+    }
+}
@@ -0,0 +1,108 @@
+package com.forter.monitoring;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencySamplerTest {
+    private static final Map<String, Double> NO_STREAM_TARGETS = Collections.emptyMap();
+
+    private static int sampled(LatencySampler sampler, String stream, int tuples) {
+        int sampled = 0;
+        for (int i = 0; i < tuples; i++) {
+            if (sampler.sample(stream)) {
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+
+    @Test
+    public void samplesEveryTupleByDefault() {
+        LatencySampler sampler = new LatencySampler(1, 0, NO_STREAM_TARGETS);
+        assertEquals(1000, sampled(sampler, "default", 1000));
+        assertTrue(sampler.isSamplingAll());
+        assertEquals("1.0", sampler.getRateString("default"));
+    }
+
+    @Test
+    public void samplesFixedFraction() {
+        LatencySampler sampler = new LatencySampler(4, 0, NO_STREAM_TARGETS);
+        assertFalse(sampler.isSamplingAll());
+        assertEquals(0.25, sampler.getRate(null), 0);
+        assertEquals(25000, sampled(sampler, null, 100000), 1000);
+    }
+
+    @Test
+    public void remembersSampledIds() {
+        LatencySampler sampler = new LatencySampler(4, 0, NO_STREAM_TARGETS);
+        int sampled = 0;
+        int unsampledTakenForSampled = 0;
+        for (int id = 0; id < 1000; id++) {
+            if (sampler.sample(id, null)) {
+                sampled++;
+                assertTrue(sampler.wasSampled(id));
+            } else if (sampler.wasSampled(id)) {
+                unsampledTakenForSampled++;
+            }
+        }
+        assertTrue(sampled > 0);
+        assertEquals(0, unsampledTakenForSampled);
+    }
+
+    @Test
+    public void everyIdWasSampledWhenSamplingAll() {
+        LatencySampler sampler = new LatencySampler(1, 0, NO_STREAM_TARGETS);
+        assertTrue(sampler.wasSampled("never seen"));
+    }
+
+    @Test
+    public void parsesStreamTargets() {
+        assertEquals(ImmutableMap.of("a", 100.0, "b", 0.5), LatencySampler.parseStreamTargets("a=100,b=0.5"));
+    }
+
+    @Test
+    public void streamsWithoutTargetShareComponentRate() {
+        LatencySampler sampler = new LatencySampler(4, 0, ImmutableMap.of("targeted", 1000.0));
+        // A target starts by sampling everything
+        assertEquals(1.0, sampler.getRate("targeted"), 0);
+        assertEquals(0.25, sampler.getRate("other"), 0);
+        assertEquals(0.25, sampler.getRate(null), 0);
+        assertFalse(sampler.isSamplingAll());
+    }
+
+    @Test
+    public void targetKeepsFullRateUnderLowLoad() throws InterruptedException {
+        LatencySampler sampler = new LatencySampler(1, 1000, NO_STREAM_TARGETS);
+        for (int i = 0; i < 3; i++) {
+            sampled(sampler, null, 10);
+            Thread.sleep(600);
+        }
+        assertEquals(1.0, sampler.getRate(null), 0);
+        // Under a target an unsampled ack may be expected, even at full rate
+        assertFalse(sampler.isSamplingAll());
+    }
+
+    @Test
+    public void targetLowersRateUnderHighLoad() {
+        LatencySampler sampler = new LatencySampler(1, 1000, NO_STREAM_TARGETS);
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1100);
+        long tuples = 0;
+        while (System.nanoTime() < until) {
+            sampled(sampler, null, 1000);
+            tuples += 1000;
+        }
+        sampled(sampler, null, 1);
+
+        // Far more than 1000 tuples a second arrived, so the rate scales down to about the target
+        double rate = sampler.getRate(null);
+        assertTrue("rate " + rate, rate < 1.0);
+        assertTrue("rate " + rate, rate >= 1000.0 / tuples / 2);
+        assertEquals(Double.toString(rate), sampler.getRateString(null));
+    }
+}
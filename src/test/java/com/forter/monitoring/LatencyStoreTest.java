@@ -0,0 +1,222 @@
+package com.forter.monitoring;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyStoreTest {
+    private static final long TICK = 1000;
+    private static final long EXPIRE_AFTER = 10 * TICK;
+
+    private final Object owner = new Object();
+    private final List<Object> removedKeys = Lists.newArrayList();
+    private final List<RemovalCause> removedCauses = Lists.newArrayList();
+    private LatencyStore.RemovalHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = new LatencyStore.RemovalHandler() {
+            @Override
+            public void onRemoval(Object key, LatencyStore.Entry entry, RemovalCause cause) {
+                removedKeys.add(key);
+                removedCauses.add(cause);
+            }
+        };
+    }
+
+    private LatencyStore store(long maxSize) {
+        return new LatencyStore(maxSize, EXPIRE_AFTER, TICK, 1, handler, 0);
+    }
+
+    @Test
+    public void removesStartedEntry() {
+        LatencyStore store = store(16);
+        store.start(owner, "a", 100, "service", null);
+        store.mark(owner, "a", LatencyType.EMIT, true, 200);
+        store.mark(owner, "a", LatencyType.EMIT, false, 250);
+
+        LatencyStore.Entry entry = new LatencyStore.Entry();
+        assertTrue(store.remove(owner, "a", 300, entry));
+        assertEquals(100, entry.executeStartNanos);
+        assertEquals(50, entry.getEmitNanos());
+        assertEquals("service", entry.service);
+        assertSame(owner, entry.owner);
+        assertFalse(store.remove(owner, "a", 300, entry));
+        assertEquals(0, store.size());
+        assertTrue(removedKeys.isEmpty());
+    }
+
+    @Test
+    public void ownerIsPartOfTheKey() {
+        LatencyStore store = store(16);
+        Object otherOwner = new Object();
+        store.start(owner, "a", 100, null, null);
+        store.start(otherOwner, "a", 200, null, null);
+
+        LatencyStore.Entry entry = new LatencyStore.Entry();
+        assertTrue(store.remove(otherOwner, "a", 300, entry));
+        assertEquals(200, entry.executeStartNanos);
+        assertTrue(store.remove(owner, "a", 300, entry));
+        assertEquals(100, entry.executeStartNanos);
+    }
+
+    @Test
+    public void restartingReplaces() {
+        LatencyStore store = store(16);
+        store.start(owner, "a", 100, null, null);
+        store.start(owner, "a", 200, null, null);
+
+        assertEquals(1, store.size());
+        assertEquals(Lists.<Object>newArrayList("a"), removedKeys);
+        assertEquals(Lists.newArrayList(RemovalCause.REPLACED), removedCauses);
+    }
+
+    @Test
+    public void backwardShiftKeepsCollidingKeysReachable() {
+        LatencyStore store = store(64);
+        List<Key> keys = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            keys.add(new Key(i, 7));
+            store.start(owner, keys.get(i), i, null, null);
+        }
+
+        // Removing from the start, middle and end of the probe sequence shifts the rest back
+        LatencyStore.Entry entry = new LatencyStore.Entry();
+        for (int i : new int[] {0, 4, 7}) {
+            assertTrue(store.remove(owner, keys.get(i), 10, entry));
+            assertEquals(i, entry.executeStartNanos);
+        }
+        for (int i : new int[] {1, 2, 3, 5, 6}) {
+            assertTrue("key " + i, store.remove(owner, keys.get(i), 10, entry));
+            assertEquals(i, entry.executeStartNanos);
+        }
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void matchesMapUnderRandomOperations() {
+        LatencyStore store = store(256);
+        Map<Key, Long> expected = Maps.newHashMap();
+        Random random = new Random(42);
+        LatencyStore.Entry entry = new LatencyStore.Entry();
+
+        for (int i = 0; i < 20000; i++) {
+            // Few distinct hash codes, so probe sequences are long and overlap
+            Key key = new Key(random.nextInt(200), random.nextInt(5));
+            if (random.nextBoolean() && expected.size() < 256) {
+                store.start(owner, key, i, null, null);
+                expected.put(key, (long) i);
+            } else {
+                Long start = expected.remove(key);
+                assertEquals(start != null, store.remove(owner, key, i, entry));
+                if (start != null) {
+                    assertEquals((long) start, entry.executeStartNanos);
+                }
+            }
+            // Only replacements are reported, as nothing expires or is evicted
+            assertEquals(expected.size(), store.size());
+        }
+        for (RemovalCause cause : removedCauses) {
+            assertEquals(RemovalCause.REPLACED, cause);
+        }
+    }
+
+    @Test
+    public void expiresEntriesOfExpiredTicksOnly() {
+        LatencyStore store = store(16);
+        store.start(owner, "early", 0, null, null);
+        store.start(owner, "late", 5 * TICK, null, null);
+
+        store.expire(12 * TICK);
+        assertEquals(Lists.<Object>newArrayList("early"), removedKeys);
+        assertEquals(Lists.newArrayList(RemovalCause.EXPIRED), removedCauses);
+        assertEquals(1, store.size());
+
+        store.expire(16 * TICK);
+        assertEquals(Lists.<Object>newArrayList("early", "late"), removedKeys);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void expiresWholeCollidingBucketInSlices() {
+        LatencyStore store = store(512);
+        for (int i = 0; i < 300; i++) {
+            store.start(owner, new Key(i, i % 3), i, null, null);
+        }
+        // A later lap of the wheel shares the bucket, but isn't expired yet
+        Key later = new Key(-1, 0);
+        store.start(owner, later, 13 * TICK, null, null);
+
+        store.expire(12 * TICK);
+        assertEquals(300, removedKeys.size());
+        assertEquals(1, store.size());
+        assertTrue(store.remove(owner, later, 14 * TICK, new LatencyStore.Entry()));
+    }
+
+    @Test
+    public void removingExpiredEntryReportsIt() {
+        LatencyStore store = store(16);
+        store.start(owner, "a", 0, null, null);
+
+        assertFalse(store.remove(owner, "a", EXPIRE_AFTER + 1, new LatencyStore.Entry()));
+        assertEquals(Lists.newArrayList(RemovalCause.EXPIRED), removedCauses);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void evictsOldestWhenFull() {
+        LatencyStore store = store(4);
+        for (int i = 0; i < 5; i++) {
+            // The wheel turns with expire(), which the registry calls every tick
+            store.expire(i * TICK);
+            store.start(owner, "k" + i, i * TICK, null, null);
+        }
+
+        assertEquals(Lists.<Object>newArrayList("k0"), removedKeys);
+        assertEquals(Lists.newArrayList(RemovalCause.SIZE), removedCauses);
+        assertEquals(4, store.size());
+        assertFalse(store.remove(owner, "k0", 5 * TICK, new LatencyStore.Entry()));
+    }
+
+    @Test
+    public void evictionOfOutlivedEntryCountsAsExpiry() {
+        LatencyStore store = store(1);
+        store.start(owner, "a", 0, null, null);
+        store.start(owner, "b", EXPIRE_AFTER + 1, null, null);
+
+        assertEquals(Lists.newArrayList(RemovalCause.EXPIRED), removedCauses);
+    }
+
+    private static class Key {
+        private final int id;
+        private final int hashCode;
+
+        Key(int id, int hashCode) {
+            this.id = id;
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return "key " + id;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.aphyr.riemann.client.RiemannClient;
+import com.forter.monitoring.events.ExceptionEvent;
+import com.forter.monitoring.events.RiemannEvent;
+import com.forter.monitoring.utils.RiemannConnection;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncRiemannEventSenderTest {
+    private static final String MACHINE_NAME = "test-machine";
+
+    /*
+     * Records the services sent. Sends wait while the gate is closed, so the sender's queue can be filled up.
+     */
+    private static class GatedTransport implements RiemannTransport {
+        final List<String> services = Collections.synchronizedList(Lists.<String>newArrayList());
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public void send(List<Proto.Event> events) throws IOException {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            for (Proto.Event event : events) {
+                services.add(event.getService().substring(MACHINE_NAME.length() + 1));
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    }
+
+    private static class TestConnection extends RiemannConnection {
+        private final RiemannClient client;
+
+        TestConnection() {
+            try {
+                // Never connected - only used to build events
+                this.client = RiemannClient.tcp("localhost", 5555);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public RiemannClient getClient() {
+            return client;
+        }
+    }
+
+    private final GatedTransport transport = new GatedTransport();
+    private AsyncRiemannEventSender sender;
+
+    private AsyncRiemannEventSender sender(AsyncRiemannEventSender.OverflowPolicy policy, long blockTimeoutMillis) {
+        // Batches of one event, sent at once, so the queue holds exactly what the flusher hasn't taken
+        sender = new AsyncRiemannEventSender(new TestConnection(), 2, 1, 0, policy, blockTimeoutMillis) {
+            @Override
+            protected String retrieveMachineName() {
+                return MACHINE_NAME;
+            }
+        };
+        sender.setTransport(RiemannEvent.class, transport);
+        return sender;
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        transport.gate.countDown();
+        if (sender != null) {
+            sender.close();
+        }
+    }
+
+    private static RiemannEvent event(String service) {
+        return new RiemannEvent().service(service);
+    }
+
+    /**
+     * Sends e0, waits until the flusher is stuck sending it, then fills the queue with e1 and e2.
+     */
+    private void fillQueue() throws InterruptedException {
+        sender.send(event("e0"));
+        assertTrue(transport.entered.await(5, TimeUnit.SECONDS));
+        sender.send(event("e1"));
+        sender.send(event("e2"));
+        assertEquals(2, sender.getQueueSize());
+    }
+
+    private void openGateAndAwaitSent(int count) throws InterruptedException {
+        transport.gate.countDown();
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sender.getSent() < count && System.nanoTime() < until) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, sender.getSent());
+    }
+
+    @Test
+    public void dropNewestDropsEventThatDoesNotFit() throws InterruptedException {
+        sender(AsyncRiemannEventSender.OverflowPolicy.DROP_NEWEST, 0);
+        fillQueue();
+        sender.send(event("e3"));
+
+        openGateAndAwaitSent(3);
+        assertEquals(Lists.newArrayList("e0", "e1", "e2"), transport.services);
+        assertEquals(1, sender.getDropped());
+        assertEquals(3, sender.getEnqueued());
+        assertEquals(3, sender.getBatches());
+        assertEquals(1, sender.getMaxBatchSize());
+    }
+
+    @Test
+    public void dropOldestMakesRoomForNewEvent() throws InterruptedException {
+        sender(AsyncRiemannEventSender.OverflowPolicy.DROP_OLDEST, 0);
+        fillQueue();
+        sender.send(event("e3"));
+
+        openGateAndAwaitSent(3);
+        assertEquals(Lists.newArrayList("e0", "e2", "e3"), transport.services);
+        assertEquals(1, sender.getDropped());
+        assertEquals(4, sender.getEnqueued());
+    }
+
+    @Test
+    public void blockDropsAfterTimeout() throws InterruptedException {
+        sender(AsyncRiemannEventSender.OverflowPolicy.BLOCK, 50);
+        fillQueue();
+
+        long start = System.nanoTime();
+        sender.send(event("e3"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+
+        openGateAndAwaitSent(3);
+        assertEquals(Lists.newArrayList("e0", "e1", "e2"), transport.services);
+        assertEquals(1, sender.getDropped());
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws InterruptedException {
+        sender(AsyncRiemannEventSender.OverflowPolicy.BLOCK, TimeUnit.SECONDS.toMillis(5));
+        fillQueue();
+
+        Thread opener = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                transport.gate.countDown();
+            }
+        });
+        opener.start();
+        sender.send(event("e3"));
+        opener.join();
+
+        openGateAndAwaitSent(4);
+        assertEquals(Lists.newArrayList("e0", "e1", "e2", "e3"), transport.services);
+        assertEquals(0, sender.getDropped());
+    }
+
+    @Test
+    public void priorityEventsSkipFullQueueAndGoFirst() throws InterruptedException {
+        sender(AsyncRiemannEventSender.OverflowPolicy.DROP_NEWEST, 0);
+        fillQueue();
+        sender.send(new ExceptionEvent("failure").service("p1"));
+        sender.send(event("e3"));
+        assertEquals(1, sender.getPriorityQueueSize());
+
+        openGateAndAwaitSent(4);
+        assertEquals(Lists.newArrayList("e0", "p1", "e1", "e2"), transport.services);
+        assertEquals(1, sender.getDropped());
+    }
+
+    @Test
+    public void closeSendsQueuedEvents() throws InterruptedException {
+        sender(AsyncRiemannEventSender.OverflowPolicy.DROP_NEWEST, 0);
+        fillQueue();
+        transport.gate.countDown();
+
+        sender.close();
+        assertEquals(3, sender.getSent());
+        assertEquals(0, sender.getQueueSize());
+    }
+}
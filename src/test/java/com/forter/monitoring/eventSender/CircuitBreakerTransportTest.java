@@ -0,0 +1,209 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTransportTest {
+    private static final int THRESHOLD = 3;
+    private static final long SLOW_CALL_MILLIS = 50;
+    private static final long OPEN_MILLIS = 100;
+    private static final List<Proto.Event> EVENTS = ImmutableList.of(Proto.Event.newBuilder().setService("s").build());
+
+    private static class FakeTransport implements RiemannTransport {
+        volatile int sends;
+        volatile RuntimeException runtimeFailure;
+        volatile boolean failing;
+        volatile long delayMillis;
+        // Sends of these threads wait for their latch, then fail if their entry says so
+        final Map<Thread, CountDownLatch> latches = new ConcurrentHashMap<>();
+        final Map<Thread, Boolean> failures = new ConcurrentHashMap<>();
+
+        @Override
+        public void send(List<Proto.Event> events) throws IOException {
+            CountDownLatch latch = latches.get(Thread.currentThread());
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                if (failures.get(Thread.currentThread())) {
+                    throw new IOException("failing");
+                }
+                return;
+            }
+            sends++;
+            if (runtimeFailure != null) {
+                throw runtimeFailure;
+            }
+            if (failing) {
+                throw new IOException("failing");
+            }
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    }
+
+    private final FakeTransport transport = new FakeTransport();
+    private final CircuitBreakerTransport breaker =
+            new CircuitBreakerTransport(transport, "test", THRESHOLD, SLOW_CALL_MILLIS, OPEN_MILLIS);
+
+    private boolean trySend() {
+        try {
+            breaker.send(EVENTS);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void open() {
+        transport.failing = true;
+        for (int i = 0; i < THRESHOLD; i++) {
+            assertFalse(trySend());
+        }
+        assertEquals(CircuitBreakerTransport.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void staysClosedBelowThreshold() {
+        transport.failing = true;
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertFalse(trySend());
+        }
+        // A success resets the consecutive failures
+        transport.failing = false;
+        assertTrue(trySend());
+        transport.failing = true;
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertFalse(trySend());
+        }
+        assertEquals(CircuitBreakerTransport.State.CLOSED, breaker.getState());
+        assertTrue(breaker.isConnected());
+    }
+
+    @Test
+    public void openCircuitShedsWithoutSending() {
+        open();
+        int sends = transport.sends;
+
+        try {
+            breaker.send(EVENTS);
+            fail("expected the open circuit to shed");
+        } catch (IOException e) {
+            assertTrue(e instanceof CircuitBreakerTransport.OpenException);
+        }
+        assertEquals(sends, transport.sends);
+        assertEquals(1, breaker.getShedEvents());
+        assertEquals(1, breaker.getOpened());
+        assertFalse(breaker.isConnected());
+    }
+
+    @Test
+    public void successfulProbeCloses() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(breaker.isConnected());
+
+        transport.failing = false;
+        assertTrue(trySend());
+        assertEquals(CircuitBreakerTransport.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void failedProbeReopens() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        assertFalse(trySend());
+        assertEquals(CircuitBreakerTransport.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpened());
+        assertFalse(breaker.isConnected());
+    }
+
+    @Test
+    public void runtimeFailureOfProbeReopens() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        transport.failing = false;
+        transport.runtimeFailure = new IllegalStateException("unexpected");
+        assertFalse(trySend());
+        assertEquals(CircuitBreakerTransport.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void slowSendsOpen() {
+        transport.delayMillis = SLOW_CALL_MILLIS * 2;
+        for (int i = 0; i < THRESHOLD; i++) {
+            assertTrue(trySend());
+        }
+        assertEquals(CircuitBreakerTransport.State.OPEN, breaker.getState());
+    }
+
+    private Thread blockedSend(CountDownLatch latch, boolean fail) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                trySend();
+            }
+        });
+        transport.latches.put(thread, latch);
+        transport.failures.put(thread, fail);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitState(CircuitBreakerTransport breaker, CircuitBreakerTransport.State state)
+            throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (breaker.getState() != state && System.nanoTime() < until) {
+            Thread.sleep(1);
+        }
+        assertEquals(state, breaker.getState());
+    }
+
+    @Test
+    public void sendStartedBeforeProbeDoesNotDecideIt() throws InterruptedException {
+        CountDownLatch closedSendDone = new CountDownLatch(1);
+        Thread closedSend = blockedSend(closedSendDone, true);
+        // Wait for the send to start through the closed circuit
+        Thread.sleep(20);
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        CountDownLatch probeDone = new CountDownLatch(1);
+        Thread probe = blockedSend(probeDone, false);
+        awaitState(breaker, CircuitBreakerTransport.State.HALF_OPEN);
+
+        closedSendDone.countDown();
+        closedSend.join();
+        assertEquals(CircuitBreakerTransport.State.HALF_OPEN, breaker.getState());
+        assertFalse("half open while probing", breaker.isConnected());
+
+        probeDone.countDown();
+        probe.join();
+        assertEquals(CircuitBreakerTransport.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getOpened());
+    }
+}
@@ -0,0 +1,135 @@
+package com.forter.monitoring.eventSender;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventRingTest {
+    private static class Recorder implements EventRing.SlotHandler {
+        final List<String> services = Lists.newArrayList();
+        final List<Boolean> endsOfBatch = Lists.newArrayList();
+
+        @Override
+        public void onSlot(EventSlot slot, boolean endOfBatch) {
+            services.add(slot.isAborted() ? "aborted" : slot.service);
+            endsOfBatch.add(endOfBatch);
+        }
+    }
+
+    private static EventSlot claim(EventRing ring, String service) {
+        EventSlot slot = ring.claim();
+        assertNotNull(slot);
+        return slot.service(service);
+    }
+
+    @Test
+    public void consumesInClaimOrderWhenPublishedOutOfOrder() {
+        EventRing ring = new EventRing(8);
+        EventSlot a = claim(ring, "a");
+        EventSlot b = claim(ring, "b");
+        EventSlot c = claim(ring, "c");
+        Recorder recorder = new Recorder();
+
+        ring.publish(c);
+        ring.publish(b);
+        // The consumer stops at the first slot not yet published
+        assertEquals(0, ring.consume(recorder, 10));
+
+        ring.publish(a);
+        assertEquals(3, ring.consume(recorder, 10));
+        assertEquals(Lists.newArrayList("a", "b", "c"), recorder.services);
+        assertEquals(Lists.newArrayList(false, false, true), recorder.endsOfBatch);
+        assertEquals(0, ring.getPending());
+    }
+
+    @Test
+    public void rejectsClaimsWhenFullUntilConsumed() {
+        EventRing ring = new EventRing(4);
+        assertEquals(4, ring.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            ring.publish(claim(ring, "first" + i));
+        }
+        assertNull(ring.claim());
+        assertEquals(4, ring.getPending());
+
+        Recorder recorder = new Recorder();
+        assertEquals(2, ring.consume(recorder, 2));
+        assertEquals(Lists.newArrayList(false, true), recorder.endsOfBatch);
+
+        // The freed slots are reused, in order after the ones still pending
+        ring.publish(claim(ring, "second0"));
+        ring.publish(claim(ring, "second1"));
+        assertNull(ring.claim());
+
+        assertEquals(4, ring.consume(recorder, 10));
+        assertEquals(Lists.newArrayList("first0", "first1", "first2", "first3", "second0", "second1"),
+                recorder.services);
+    }
+
+    @Test
+    public void abortedSlotIsHandedOverEmpty() {
+        EventRing ring = new EventRing(4);
+        EventSlot a = claim(ring, "a").tag("tag").attribute("key", "value");
+        EventSlot b = claim(ring, "b");
+
+        ring.publish(b);
+        ring.abort(a);
+        Recorder recorder = new Recorder();
+        assertEquals(2, ring.consume(recorder, 10));
+        assertEquals(Lists.newArrayList("aborted", "b"), recorder.services);
+        assertNull(a.service);
+        assertEquals(0, a.tagCount);
+        assertEquals(0, a.attributeCount);
+
+        // A reused slot is no longer aborted
+        EventSlot reused = ring.claim();
+        assertFalse(reused.isAborted());
+    }
+
+    @Test
+    public void claimsFromManyThreadsAreAllConsumed() throws InterruptedException {
+        final EventRing ring = new EventRing(64);
+        final int perThread = 10000;
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; ) {
+                        EventSlot slot = ring.claim();
+                        if (slot == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        ring.publish(slot.service("event"));
+                        i++;
+                    }
+                }
+            });
+            producers[t].start();
+        }
+
+        final long[] lastSequence = {-1};
+        final int[] handled = {0};
+        EventRing.SlotHandler handler = new EventRing.SlotHandler() {
+            @Override
+            public void onSlot(EventSlot slot, boolean endOfBatch) {
+                assertEquals(lastSequence[0] + 1, slot.sequence);
+                lastSequence[0] = slot.sequence;
+                handled[0]++;
+            }
+        };
+        while (handled[0] < producers.length * perThread) {
+            if (ring.consume(handler, 32) == 0) {
+                Thread.yield();
+            }
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(0, ring.getPending());
+    }
+}
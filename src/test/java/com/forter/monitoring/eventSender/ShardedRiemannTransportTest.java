@@ -0,0 +1,166 @@
+package com.forter.monitoring.eventSender;
+
+import com.aphyr.riemann.Proto;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShardedRiemannTransportTest {
+    private static final long RETRY_MILLIS = 100;
+
+    private static class FakeTransport implements RiemannTransport {
+        final List<String> services = Lists.newArrayList();
+        volatile boolean connected = true;
+        volatile boolean failing;
+
+        @Override
+        public void send(List<Proto.Event> events) throws IOException {
+            if (failing) {
+                throw new IOException("failing");
+            }
+            for (Proto.Event event : events) {
+                services.add(event.getService());
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+    }
+
+    private final List<FakeTransport> transports = ImmutableList.of(new FakeTransport(), new FakeTransport(),
+            new FakeTransport());
+    private final ShardedRiemannTransport sharded = new ShardedRiemannTransport(
+            ImmutableList.of("riemann1", "riemann2", "riemann3"), ImmutableList.<RiemannTransport>copyOf(transports),
+            RETRY_MILLIS);
+
+    private static List<Proto.Event> events(int services) {
+        List<Proto.Event> events = Lists.newArrayList();
+        for (int i = 0; i < services; i++) {
+            events.add(Proto.Event.newBuilder().setService("service " + i).build());
+        }
+        return events;
+    }
+
+    private FakeTransport ownerOf(String service) {
+        for (FakeTransport transport : transports) {
+            if (transport.services.contains(service)) {
+                return transport;
+            }
+        }
+        return null;
+    }
+
+    private void clearAll() {
+        for (FakeTransport transport : transports) {
+            transport.services.clear();
+        }
+    }
+
+    @Test
+    public void routesEachServiceToOneEndpoint() throws IOException {
+        sharded.send(events(100));
+        sharded.send(events(100));
+
+        int total = 0;
+        for (FakeTransport transport : transports) {
+            assertFalse("every endpoint gets a share", transport.services.isEmpty());
+            total += transport.services.size();
+        }
+        assertEquals(200, total);
+        for (int i = 0; i < 100; i++) {
+            FakeTransport owner = ownerOf("service " + i);
+            assertEquals(2, owner.services.stream().filter(("service " + i)::equals).count());
+        }
+    }
+
+    @Test
+    public void movesOnlyFailedEndpointsShareAndBack() throws IOException, InterruptedException {
+        sharded.send(events(100));
+        List<FakeTransport> owners = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            owners.add(ownerOf("service " + i));
+        }
+        FakeTransport failed = transports.get(0);
+        clearAll();
+
+        // The failed batch is resent to the other endpoints, so nothing is lost
+        failed.failing = true;
+        sharded.send(events(100));
+        assertTrue(failed.services.isEmpty());
+        for (int i = 0; i < 100; i++) {
+            FakeTransport owner = ownerOf("service " + i);
+            assertNotNull(owner);
+            if (owners.get(i) != failed) {
+                assertSame("service " + i + " stays", owners.get(i), owner);
+            }
+        }
+
+        // While it is retried later, the failed endpoint isn't sent to at all
+        failed.failing = false;
+        clearAll();
+        sharded.send(events(100));
+        assertTrue(failed.services.isEmpty());
+
+        Thread.sleep(RETRY_MILLIS + 20);
+        clearAll();
+        sharded.send(events(100));
+        for (int i = 0; i < 100; i++) {
+            assertSame(owners.get(i), ownerOf("service " + i));
+        }
+    }
+
+    @Test
+    public void skipsDisconnectedEndpoint() throws IOException {
+        transports.get(1).connected = false;
+        sharded.send(events(100));
+
+        assertTrue(transports.get(1).services.isEmpty());
+        assertEquals(100, transports.get(0).services.size() + transports.get(2).services.size());
+        assertTrue(sharded.isConnected());
+    }
+
+    @Test
+    public void failsWhenNoEndpointIsHealthy() {
+        for (FakeTransport transport : transports) {
+            transport.failing = true;
+        }
+        try {
+            sharded.send(events(10));
+            fail("expected the send to fail");
+        } catch (IOException expected) {
+            // every endpoint failed or was marked down
+        }
+        assertFalse(sharded.isConnected());
+    }
+
+    @Test
+    public void reportsOnlyUnsentEvents() throws IOException {
+        transports.get(0).failing = true;
+        transports.get(1).failing = true;
+        try {
+            sharded.send(events(100));
+            fail("expected the send to fail");
+        } catch (PartialSendException e) {
+            // What the healthy endpoint delivered isn't reported, so it won't be sent again
+            List<String> delivered = transports.get(2).services;
+            assertFalse(delivered.isEmpty());
+            assertEquals(100, delivered.size() + e.getUnsent().size());
+            for (Proto.Event event : e.getUnsent()) {
+                assertFalse(event.getService() + " was delivered", delivered.contains(event.getService()));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresTransportPerHost() {
+        new ShardedRiemannTransport(ImmutableList.of("riemann1", "riemann2"),
+                ImmutableList.<RiemannTransport>of(new FakeTransport()), RETRY_MILLIS);
+    }
+}
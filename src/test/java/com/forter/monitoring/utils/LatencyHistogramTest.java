@@ -0,0 +1,109 @@
+package com.forter.monitoring.utils;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    private static final long HIGHEST = 3_600_000_000L;
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(50, snapshot.getValueAtPercentile(50));
+        assertEquals(95, snapshot.getValueAtPercentile(95));
+        assertEquals(99, snapshot.getValueAtPercentile(99));
+        assertEquals(100, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        // Each value falls in a bucket whose highest equivalent value isn't below it, and the previous bucket's is
+        for (long value : new long[] {0, 1, 127, 128, 129, 255, 256, 1000, 65535, 65536, 1_000_000, HIGHEST}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue("value " + value, LatencyHistogram.highestValueAt(index) >= value);
+            if (index > 0) {
+                assertTrue("value " + value, LatencyHistogram.highestValueAt(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinRelativeErrorBound() {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(HIGHEST));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double percentile : new double[] {1, 50, 90, 95, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = snapshot.getValueAtPercentile(percentile);
+            // Never below the exact value, and above it by less than 1/64
+            assertTrue("p" + percentile, reported >= exact);
+            assertTrue("p" + percentile, reported - exact <= exact / 64);
+        }
+    }
+
+    @Test
+    public void percentileIsCappedByMax() {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+        histogram.record(1000);
+        assertEquals(1000, histogram.snapshotAndReset().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void valuesAboveHighestAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        histogram.record(-5);
+        histogram.record(1_000_000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(1_000_000, snapshot.getMax());
+        assertTrue(snapshot.getValueAtPercentile(100) >= 1000);
+    }
+
+    @Test
+    public void snapshotResets() {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST);
+        histogram.record(10);
+        histogram.snapshotAndReset();
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void statisticsAreInMillis() {
+        LatencyHistogram histogram = LatencyHistogram.ofMicros();
+        histogram.record(1000);
+        histogram.record(2000);
+        Map<String, Number> statistics = histogram.snapshotAndReset().getMillisStatistics();
+
+        assertEquals(ImmutableList.of("p50", "p95", "p99", "max", "count"),
+                ImmutableList.copyOf(statistics.keySet()));
+        assertEquals(1.0, statistics.get("p50").doubleValue(), 0.02);
+        assertEquals(2.0, statistics.get("max").doubleValue(), 0.0);
+        assertEquals(2L, statistics.get("count"));
+    }
+}
@@ -0,0 +1,128 @@
+package com.forter.monitoring.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SpillBufferTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("spill-buffer-test", ".spill");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static byte[] record(int value, int length) {
+        byte[] record = new byte[length];
+        Arrays.fill(record, (byte) value);
+        return record;
+    }
+
+    private static void assertRecords(SpillBuffer buffer, byte[]... expected) {
+        assertEquals(expected.length, buffer.getRecords());
+        SpillBuffer.Cursor cursor = buffer.cursor();
+        byte[] into = new byte[256];
+        for (byte[] record : expected) {
+            assertEquals(record.length, cursor.next(into));
+            assertArrayEquals(record, Arrays.copyOf(into, record.length));
+        }
+        assertEquals(0, cursor.next(into));
+    }
+
+    @Test
+    public void readsRecordsInOrder() {
+        SpillBuffer buffer = new SpillBuffer(file, 1024);
+        assertTrue(buffer.append(record(1, 10)));
+        assertTrue(buffer.append(record(2, 20)));
+        assertRecords(buffer, record(1, 10), record(2, 20));
+
+        buffer.remove(1);
+        assertRecords(buffer, record(2, 20));
+        assertEquals(24, buffer.getUsedBytes());
+    }
+
+    @Test
+    public void wrapsRecordThatDoesNotFitBeforeTheEnd() {
+        // Three 20 byte records leave a 4 byte tail
+        SpillBuffer buffer = new SpillBuffer(file, 64);
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(buffer.append(record(i, 16)));
+        }
+        buffer.remove(2);
+
+        assertTrue(buffer.append(record(4, 16)));
+        assertRecords(buffer, record(3, 16), record(4, 16));
+        // The wasted tail counts as used until the reader passes it
+        assertEquals(44, buffer.getUsedBytes());
+
+        buffer.remove(1);
+        assertRecords(buffer, record(4, 16));
+        assertEquals(24, buffer.getUsedBytes());
+        buffer.remove(1);
+        assertEquals(0, buffer.getUsedBytes());
+    }
+
+    @Test
+    public void rejectsRecordsWhenFull() {
+        SpillBuffer buffer = new SpillBuffer(file, 64);
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(buffer.append(record(i, 16)));
+        }
+        assertFalse(buffer.append(record(4, 16)));
+        // Wrapping must not overwrite the undrained head either
+        buffer.remove(1);
+        assertTrue(buffer.append(record(4, 12)));
+        assertFalse(buffer.append(record(5, 1)));
+        assertRecords(buffer, record(2, 16), record(3, 16), record(4, 12));
+    }
+
+    @Test
+    public void cursorDoesNotAdvancePastRecordTooLargeForBuffer() {
+        SpillBuffer buffer = new SpillBuffer(file, 1024);
+        buffer.append(record(1, 100));
+
+        SpillBuffer.Cursor cursor = buffer.cursor();
+        assertEquals(-100, cursor.next(new byte[10]));
+        assertEquals(100, cursor.next(new byte[100]));
+    }
+
+    @Test
+    public void reopenedBufferKeepsRecords() {
+        SpillBuffer buffer = new SpillBuffer(file, 64);
+        for (int i = 1; i <= 3; i++) {
+            buffer.append(record(i, 16));
+        }
+        buffer.remove(2);
+        buffer.append(record(4, 16));
+
+        SpillBuffer reopened = new SpillBuffer(file, 64);
+        assertRecords(reopened, record(3, 16), record(4, 16));
+        assertEquals(44, reopened.getUsedBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsFileOfAnotherCapacity() {
+        new SpillBuffer(file, 64).append(record(1, 16));
+        new SpillBuffer(file, 128);
+    }
+
+    @Test
+    public void initializesEmptyFile() {
+        SpillBuffer buffer = new SpillBuffer(file, 64);
+        assertEquals(0, buffer.getRecords());
+        assertEquals(64, buffer.getCapacityBytes());
+        assertEquals(0, new SpillBuffer(file, 64).getRecords());
+    }
+}